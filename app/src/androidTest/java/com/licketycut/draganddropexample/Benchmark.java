@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Times work repeated on a device, for the benchmarks run with the instrumented tests.
+ * Results are logged under {@link #TAG}, to be read with logcat.
+ */
+final class Benchmark {
+
+    static final String TAG ="Benchmark";
+
+    // Runs thrown away while the code is compiled and caches fill, then runs timed.
+    private static final int WARMUP_RUNS =3;
+    private static final int RUNS =10;
+
+    private Benchmark(){}
+
+    /** Work to time, which is set up again before every run. */
+    abstract static class Work {
+
+        /** Put things back as they were before the last run, untimed. */
+        void setUp(){}
+
+        /** The work being timed. */
+        abstract void run();
+    }
+
+    /**
+     * Time the work, logging the median time of each operation.
+     * @param name          Name the result is logged under.
+     * @param operations    Operations done by each run of the work.
+     * @param work          The work.
+     * @return              Median nanoseconds of one operation.
+     */
+    static long time(String name, int operations, Work work){
+        for(int run =0; run <WARMUP_RUNS; run++){
+            work.setUp();
+            work.run();
+        }
+        long[] times = new long[RUNS];
+        for(int run =0; run <RUNS; run++){
+            work.setUp();
+            long start =System.nanoTime();
+            work.run();
+            times[run] =System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        long median =times[RUNS / 2] / operations;
+        Log.i(TAG, name+" : "+median+" ns per operation, "+operations+" operations");
+        return median;
+    }
+
+    /** Bytes of the heap in use, after collecting whatever can be collected. */
+    static long usedMemory(){
+        Runtime runtime =Runtime.getRuntime();
+        for(int pass =0; pass <3; pass++){
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Log the heap held by objects made by some work, which are kept until it's measured.
+     * @param name      Name the result is logged under.
+     * @param count     Number of objects the work makes.
+     * @param before    Bytes in use before the work, from {@link #usedMemory()}.
+     * @return          Bytes held by each object.
+     */
+    static long logMemory(String name, int count, long before){
+        long each =(usedMemory() - before) / count;
+        Log.i(TAG, name+" : "+each+" bytes each, "+count+" objects");
+        return each;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample.DragAndDrop;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Replays a recorded drag over a grid of targets and checks that moving the dragged view,
+ * and the group dragged along with it, allocates nothing once the drag has started.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DragAndDropAllocationTest {
+
+    // A grid of targets with gaps between them, like the cells of a FileFolderGrid.
+    private static final int COLUMNS =10;
+    private static final int ROWS =10;
+    private static final int TARGET_SIZE =80;
+    private static final int CELL_SIZE =100;
+
+    // Moves in the recorded drag, and the y of the gap between the first two rows it follows.
+    private static final int MOVES =200;
+    private static final int GAP_Y =TARGET_SIZE + (CELL_SIZE - TARGET_SIZE) / 2;
+
+    private FrameLayout parent;
+    private final ArrayList<View> children = new ArrayList<>();
+
+    @Before
+    public void setUp(){
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Context context =InstrumentationRegistry.getTargetContext();
+                parent = new FrameLayout(context);
+                for(int row =0; row <ROWS; row++){
+                    for(int column =0; column <COLUMNS; column++){
+                        View child = new View(context);
+                        parent.addView(child, new FrameLayout.LayoutParams(TARGET_SIZE,
+                                TARGET_SIZE));
+                        children.add(child);
+                    }
+                }
+                layout();
+            }
+        });
+    }
+
+    @After
+    public void tearDown(){
+        children.clear();
+        parent =null;
+    }
+
+    /** Lay out the parent and its children in the grid without attaching them to a window. */
+    private void layout(){
+        parent.layout(0, 0, COLUMNS * CELL_SIZE, ROWS * CELL_SIZE);
+        for(int index =0; index <children.size(); index++){
+            int left =(index % COLUMNS) * CELL_SIZE;
+            int top =(index / COLUMNS) * CELL_SIZE;
+            children.get(index).layout(left, top, left + TARGET_SIZE, top + TARGET_SIZE);
+        }
+    }
+
+    @Test
+    public void indexQueryDoesNotAllocate(){
+        final DragAndDropIndex index = new DragAndDropIndex();
+        final ArrayList<DragAndDropView> targets = new ArrayList<>();
+        for(View child : children){
+            targets.add(new DragAndDropView(child));
+        }
+        index.build(targets);
+
+        // A sweep across every row, crossing targets and the gaps between them.
+        final int[] xs = new int[MOVES], ys = new int[MOVES];
+        for(int move =0; move <MOVES; move++){
+            xs[move] =(move * 7) % (COLUMNS * CELL_SIZE);
+            ys[move] =(move * 13) % (ROWS * CELL_SIZE);
+        }
+        assertNotNull(index.query(CELL_SIZE / 2 - 10, CELL_SIZE / 2 - 10, null, null, null));
+        assertNull(index.query(GAP_Y, GAP_Y, null, null, null));
+
+        int allocations =countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                for(int move =0; move <MOVES; move++){
+                    index.query(xs[move], ys[move], null, null, null);
+                }
+            }
+        });
+        assertEquals(0, allocations);
+    }
+
+    @Test
+    public void groupDragDoesNotAllocate(){
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                View dragged =children.get(0);
+                DragAndDropSelection selection = new DragAndDropSelection();
+                selection.add(dragged);
+                selection.add(children.get(COLUMNS - 1));
+                selection.add(children.get(children.size() - 1));
+
+                DragAndDropTouchListener listener = new DragAndDropTouchListener(
+                        InstrumentationRegistry.getTargetContext(),
+                        DragAndDropTouchListener.IGNORE_GESTURES);
+                listener.setSelection(selection);
+
+                // Record the drag up front, since obtaining events allocates. It goes down
+                // to the gap below the first row and along it, so nothing is overlapped.
+                long downTime =SystemClock.uptimeMillis();
+                float downX =TARGET_SIZE / 2, downY =TARGET_SIZE / 2;
+                MotionEvent down =MotionEvent.obtain(downTime, downTime,
+                        MotionEvent.ACTION_DOWN, downX, downY, 0);
+                MotionEvent[] moves = new MotionEvent[MOVES];
+                for(int move =0; move <MOVES; move++){
+                    float x =downX + move * (COLUMNS - 1) * CELL_SIZE / MOVES;
+                    moves[move] =MotionEvent.obtain(downTime, downTime + move + 1,
+                            MotionEvent.ACTION_MOVE, x, GAP_Y, 0);
+                }
+                MotionEvent up =MotionEvent.obtain(downTime, downTime + MOVES + 1,
+                        MotionEvent.ACTION_UP, downX, GAP_Y, 0);
+
+                // The first drag builds the registry and its index, the second is counted.
+                drag(listener, dragged, down, moves, up, false);
+                drag(listener, dragged, down, moves, up, true);
+
+                down.recycle();
+                up.recycle();
+                for(MotionEvent move : moves){
+                    move.recycle();
+                }
+            }
+        });
+    }
+
+    private void drag(final DragAndDropTouchListener listener, final View view,
+                      MotionEvent down, final MotionEvent[] moves, MotionEvent up,
+                      boolean counted){
+        listener.onTouch(view, down);
+        // The first move crosses the movement threshold, starting the drag.
+        listener.onTouch(view, moves[0]);
+        Runnable replay = new Runnable() {
+            @Override
+            public void run() {
+                for(int move =1; move <moves.length; move++){
+                    listener.onTouch(view, moves[move]);
+                }
+            }
+        };
+        if(counted){
+            assertEquals(0, countAllocations(replay));
+        } else{
+            replay.run();
+        }
+        listener.onTouch(view, up);
+
+        // Put every view back, so the next drag replays the same path.
+        for(View child : children){
+            child.animate().cancel();
+            child.setTranslationX(0);
+            child.setTranslationY(0);
+        }
+    }
+
+    /** Number of objects allocated by this thread while running the work. */
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(Runnable work){
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            work.run();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+}
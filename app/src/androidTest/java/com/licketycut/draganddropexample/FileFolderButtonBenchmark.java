@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.content.res.AppCompatResources;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times building 10,000 {@link FileFolderButton}s and measures the heap they hold,
+ * with their icons shared through {@link IconCache} against inflating an icon per button.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileFolderButtonBenchmark {
+
+    private static final int BUTTONS =10000;
+
+    private Context context;
+    private File folder;
+
+    @Before
+    public void setUp(){
+        context =InstrumentationRegistry.getTargetContext();
+        folder =context.getFilesDir();
+    }
+
+    @Test
+    public void construction(){
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<FileFolderButton> buttons = new ArrayList<>(BUTTONS);
+                Benchmark.time("FileFolderButton construction", BUTTONS, new Benchmark.Work() {
+                    @Override
+                    void setUp() {
+                        buttons.clear();
+                    }
+
+                    @Override
+                    void run() {
+                        buildButtons(buttons);
+                    }
+                });
+                buttons.clear();
+
+                long before =Benchmark.usedMemory();
+                buildButtons(buttons);
+                Benchmark.logMemory("FileFolderButton heap", BUTTONS, before);
+                assertEquals(BUTTONS, buttons.size());
+            }
+        });
+    }
+
+    /** Build buttons of alternating files and folders, as a mixed folder would have. */
+    private void buildButtons(ArrayList<FileFolderButton> buttons){
+        for(int index =0; index <BUTTONS; index++){
+            boolean isFolder =index % 2 ==0;
+            buttons.add(new FileFolderButton(context,
+                    new File(folder, (isFolder ? "Folder\n" : "File\n")+index), isFolder));
+        }
+    }
+
+    @Test
+    public void sharedIcons(){
+        benchmarkIcons("IconCache.get", new IconSource() {
+            @Override
+            public Drawable get(int id) {
+                return IconCache.get(context, id);
+            }
+        });
+    }
+
+    @Test
+    public void inflatedIcons(){
+        // How every button got its icon before they were shared, for comparison.
+        benchmarkIcons("AppCompatResources.getDrawable", new IconSource() {
+            @Override
+            public Drawable get(int id) {
+                return AppCompatResources.getDrawable(context, id);
+            }
+        });
+    }
+
+    private interface IconSource {
+        Drawable get(int id);
+    }
+
+    /** Time getting an icon for every button, then measure the heap the icons hold. */
+    private void benchmarkIcons(final String name, final IconSource source){
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<Drawable> icons = new ArrayList<>(BUTTONS);
+                Benchmark.time(name, BUTTONS, new Benchmark.Work() {
+                    @Override
+                    void setUp() {
+                        icons.clear();
+                    }
+
+                    @Override
+                    void run() {
+                        getIcons(source, icons);
+                    }
+                });
+                icons.clear();
+
+                long before =Benchmark.usedMemory();
+                getIcons(source, icons);
+                Benchmark.logMemory(name+" heap", BUTTONS, before);
+                assertEquals(BUTTONS, icons.size());
+            }
+        });
+    }
+
+    private static void getIcons(IconSource source, ArrayList<Drawable> icons){
+        for(int index =0; index <BUTTONS; index++){
+            icons.add(source.get(index % 2 ==0 ? R.drawable.ic_folder : R.drawable.ic_file));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.DisplayMetrics;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times looking up the buttons of a large {@link FileFolderGrid} by view:id
+ * and finding free cells in it, against scanning the cells as the grid used to.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileFolderGridBenchmark {
+
+    // A grid of 10,000 cells, far more than fit on a screen.
+    private static final int COLUMNS =100;
+    private static final int ROWS =100;
+    private static final int CELL_SIZE_DP =48;
+    private static final int MARGIN_DP =12;
+
+    private FileFolderGrid grid;
+    private final ArrayList<FileFolderButton> buttons = new ArrayList<>();
+    // View:ids of the buttons in a random order, so lookups don't follow the cells.
+    private int[] ids;
+
+    @Before
+    public void setUp(){
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Context context =InstrumentationRegistry.getTargetContext();
+                DisplayMetrics displayMetrics =context.getResources().getDisplayMetrics();
+                int pitch =(int) Math.ceil(CELL_SIZE_DP * displayMetrics.density)
+                        + (int) Math.ceil(MARGIN_DP * displayMetrics.density);
+
+                // The grid takes its size from a view, one cell bigger each way than it fills.
+                View view = new View(context);
+                view.layout(0, 0, (COLUMNS + 1) * pitch, (ROWS + 1) * pitch);
+                grid = new FileFolderGrid(context, view, new FileFolderLayout(context),
+                        CELL_SIZE_DP, MARGIN_DP, Integer.MAX_VALUE);
+
+                File folder =context.getFilesDir();
+                for(int index =0; index <COLUMNS * ROWS; index++){
+                    buttons.add(new FileFolderButton(context,
+                            new File(folder, "File\n"+index), false));
+                }
+                assertEquals(COLUMNS * ROWS, grid.addButtons(buttons));
+            }
+        });
+
+        ArrayList<Integer> shuffled = new ArrayList<>(buttons.size());
+        for(FileFolderButton button : buttons){
+            shuffled.add(button.getId());
+        }
+        Collections.shuffle(shuffled, new Random(1));
+        ids = new int[shuffled.size()];
+        for(int index =0; index <ids.length; index++){
+            ids[index] =shuffled.get(index);
+        }
+    }
+
+    @Test
+    public void findById(){
+        assertSame(buttons.get(0), grid.findById(buttons.get(0).getId()));
+        Benchmark.time("FileFolderGrid.findById", ids.length, new Benchmark.Work() {
+            @Override
+            void run() {
+                for(int id : ids){
+                    grid.findById(id);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void findByIdScanningCells(){
+        // The lookup the grid made before buttons were kept by view:id, for comparison.
+        final int lookups =ids.length / 10;
+        Benchmark.time("Scan cells for view:id", lookups, new Benchmark.Work() {
+            @Override
+            void run() {
+                for(int index =0; index <lookups; index++){
+                    scanForId(ids[index]);
+                }
+            }
+        });
+    }
+
+    private FileFolderButton scanForId(int id){
+        for(int row =0; row <grid.getRowCount(); row++){
+            for(int column =0; column <COLUMNS; column++){
+                FileFolderButton button =grid.getButton(row, column);
+                if(button !=null && button.getId() ==id){
+                    return button;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void findFreeCell(){
+        // Each operation frees a cell of a full grid, then fills the first free cell,
+        // which is the one just freed. Cells are freed in a random order across the grid.
+        final ArrayList<FileFolderButton> order = new ArrayList<>(buttons);
+        Collections.shuffle(order, new Random(2));
+        Benchmark.time("FileFolderGrid free cell search", order.size(), new Benchmark.Work() {
+            @Override
+            void run() {
+                for(FileFolderButton button : order){
+                    grid.removeButton(button);
+                    grid.setNextOpenButton(button);
+                }
+            }
+        });
+        assertEquals(COLUMNS * ROWS, grid.getOccupiedCount());
+        assertTrue(grid.isFull());
+    }
+
+    @Test
+    public void isFull(){
+        // A full grid is checked for space whenever a file or folder is about to be created.
+        final int checks =ids.length;
+        Benchmark.time("FileFolderGrid.isFull", checks, new Benchmark.Work() {
+            @Override
+            void run() {
+                for(int check =0; check <checks; check++){
+                    grid.isFull();
+                }
+            }
+        });
+    }
+}
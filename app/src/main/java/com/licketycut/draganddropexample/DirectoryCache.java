@@ -0,0 +1,294 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.FileObserver;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * Listings of recently visited folders, kept up to date by watching the folders.
+ *
+ * A folder is read from disk the first time it is listed, after which a {@link FileObserver}
+ * adds and removes its files as they are created, deleted or moved,
+ * so listing it again or counting its files doesn't touch the file system.
+ * The app tells the cache of its own changes as it makes them, since the events arrive later.
+ * Where the platform can read a folder a chunk at a time, a long folder is passed on in chunks
+ * as it is read, so a caller can show the first files before the last have been read.
+ * Safe to use from any thread.
+ */
+final class DirectoryCache {
+
+    // Folders kept listed, each of which is watched.
+    private static final int CACHE_SIZE =32;
+    // Files in each chunk passed on while a folder is read.
+    private static final int CHUNK_SIZE =512;
+    // Events which change the files of a folder, or the folder itself.
+    private static final int EVENTS =FileObserver.CREATE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO
+            | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    /** Receives the files of a folder as it is read. */
+    interface ChunkListener {
+
+        /**
+         * A chunk of files has been read and there are more to come, so a folder read
+         * in one chunk isn't passed on. Called on the reading thread, without the cache locked,
+         * so other folders can be listed meanwhile.
+         */
+        void onChunk(File[] chunk);
+    }
+
+    /** Files of a folder, and the observer which keeps them up to date. */
+    private final class Listing extends FileObserver {
+
+        private final File folder;
+        private final HashSet<File> files = new HashSet<>();
+        // Events which arrive while the folder is read, null once they've been replayed.
+        private ArrayList<Integer> pendingEvents = new ArrayList<>();
+        private ArrayList<String> pendingPaths = new ArrayList<>();
+        // Has the folder itself gone?
+        private boolean gone =false;
+
+        Listing(File folder){
+            super(folder.getPath(), EVENTS);
+            this.folder =folder;
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            synchronized (DirectoryCache.this){
+                if(pendingEvents !=null){
+                    // The folder is still being read, so the event waits until it has been.
+                    pendingEvents.add(event);
+                    pendingPaths.add(path);
+                } else{
+                    handle(event, path);
+                }
+            }
+        }
+
+        /** Add the files read from disk and replay the events since, with the cache locked. */
+        void finishReading(HashSet<File> read){
+            files.addAll(read);
+            for(int index =0; index <pendingEvents.size(); index++){
+                handle(pendingEvents.get(index), pendingPaths.get(index));
+            }
+            pendingEvents =null;
+            pendingPaths =null;
+        }
+
+        /** Apply an event to the files. Called with the cache locked. */
+        private void handle(int event, String path){
+            switch (event & FileObserver.ALL_EVENTS){
+                case FileObserver.CREATE:
+                case FileObserver.MOVED_TO:
+                    if(path !=null){
+                        files.add(new File(folder, path));
+                    }
+                    break;
+                case FileObserver.DELETE:
+                case FileObserver.MOVED_FROM:
+                    if(path !=null){
+                        files.remove(new File(folder, path));
+                    }
+                    break;
+                case FileObserver.DELETE_SELF:
+                case FileObserver.MOVE_SELF:
+                    // The folder has gone, unless it has since been listed again.
+                    gone =true;
+                    if(listings.get(folder) ==this){
+                        listings.remove(folder);
+                    }
+                    break;
+            }
+        }
+    }
+
+    // Folders being read, each by one thread which alone watches it, and which the others wait for.
+    private final HashSet<File> reading = new HashSet<>();
+
+    private final LruCache<File, Listing> listings = new LruCache<File, Listing>(CACHE_SIZE) {
+        @Override
+        protected void entryRemoved(boolean evicted, File key, Listing oldValue,
+                                    Listing newValue) {
+            // A folder which isn't cached needn't be watched.
+            oldValue.stopWatching();
+        }
+    };
+
+    /**
+     * The files of a folder, read from disk only if the folder isn't cached.
+     * @param folder    Folder to list.
+     * @return          The files in no particular order, which the caller may sort,
+     *                  or none if the folder can't be listed.
+     */
+    File[] list(File folder){
+        return list(folder, null);
+    }
+
+    /**
+     * The files of a folder, read from disk only if the folder isn't cached.
+     * @param folder    Folder to list.
+     * @param listener  Passed the files in chunks while they're read, if the folder isn't cached
+     *                  and the platform can read it in chunks. May be null.
+     * @return          Every file in no particular order, which the caller may sort,
+     *                  or none if the folder can't be listed.
+     */
+    File[] list(File folder, ChunkListener listener){
+        synchronized (this){
+            Listing listing =listings.get(folder);
+            while(listing ==null && reading.contains(folder)){
+                // Another thread is reading the folder, so wait for its listing
+                // rather than watching the folder twice.
+                try {
+                    wait();
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    return new File[0];
+                }
+                listing =listings.get(folder);
+            }
+            if(listing !=null){
+                return listing.files.toArray(new File[listing.files.size()]);
+            }
+            // Not cached, or its reader failed, so read it here.
+            reading.add(folder);
+        }
+
+        // The folder is read without the cache locked, so the listener can take its time
+        // and other folders can be listed meanwhile.
+        Listing listing = new Listing(folder);
+        // Watch before reading, so nothing created meanwhile is missed.
+        listing.startWatching();
+        HashSet<File> files = new HashSet<>();
+        boolean read;
+        try {
+            if(listener !=null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O){
+                read =readInChunks(folder, files, listener);
+            } else{
+                // Older platforms can only read a whole folder at once.
+                File[] fileList =folder.listFiles();
+                read =fileList !=null;
+                if(read){
+                    Collections.addAll(files, fileList);
+                }
+            }
+        } catch (RuntimeException e){
+            // Such as from the listener, so let the others waiting for the folder read it.
+            synchronized (this){
+                reading.remove(folder);
+                notifyAll();
+            }
+            listing.stopWatching();
+            throw e;
+        }
+
+        synchronized (this){
+            reading.remove(folder);
+            notifyAll();
+            if(!read){
+                // Not a folder, or it can't be read.
+                listing.stopWatching();
+                return new File[0];
+            }
+            listing.finishReading(files);
+            if(listing.gone){
+                // The folder went while it was read, so there's nothing to keep.
+                listing.stopWatching();
+            } else{
+                listings.put(folder, listing);
+            }
+            return listing.files.toArray(new File[listing.files.size()]);
+        }
+    }
+
+    /**
+     * Read a folder an entry at a time, passing on each chunk once another entry follows it.
+     * @return  False if the folder can't be read.
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    private static boolean readInChunks(File folder, HashSet<File> files,
+                                        ChunkListener listener){
+        ArrayList<File> chunk = new ArrayList<>(CHUNK_SIZE);
+        try (DirectoryStream<Path> stream =Files.newDirectoryStream(folder.toPath())){
+            for(Path path : stream){
+                if(chunk.size() ==CHUNK_SIZE){
+                    listener.onChunk(chunk.toArray(new File[CHUNK_SIZE]));
+                    chunk.clear();
+                }
+                File file = new File(folder, path.getFileName().toString());
+                files.add(file);
+                chunk.add(file);
+            }
+        } catch (IOException | DirectoryIteratorException e){
+            return false;
+        }
+        return true;
+    }
+
+    /** Number of files in a folder, read from disk only if the folder isn't cached. */
+    int count(File folder){
+        synchronized (this){
+            Listing listing =listings.get(folder);
+            if(listing !=null){
+                return listing.files.size();
+            }
+        }
+        return list(folder).length;
+    }
+
+    /** A file has been created in, or moved into, its folder. */
+    synchronized void added(File file){
+        Listing listing =listings.get(file.getParentFile());
+        if(listing !=null){
+            listing.files.add(file);
+        }
+    }
+
+    /** A file has been deleted from, or moved out of, its folder. */
+    synchronized void removed(File file){
+        Listing listing =listings.get(file.getParentFile());
+        if(listing !=null){
+            listing.files.remove(file);
+        }
+        // If it was a folder its own listing is no good either, nor those of its sub folders,
+        // which aren't told that the path to them has gone.
+        String prefix =file.getPath() + File.separator;
+        for(File folder : listings.snapshot().keySet()){
+            if(folder.equals(file) || folder.getPath().startsWith(prefix)){
+                listings.remove(folder);
+            }
+        }
+    }
+
+    /** Forget every folder and stop watching them. */
+    synchronized void clear(){
+        listings.evictAll();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample.DragAndDrop;
+
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewPropertyAnimator;
+import android.view.animation.Interpolator;
+import android.view.animation.OvershootInterpolator;
+
+import java.util.ArrayList;
+
+/**
+ * Spring like snap back and hover animations for {@link DragAndDropTouchListener}.
+ *
+ * Animations use the {@link ViewPropertyAnimator} each view already owns, without listeners
+ * or end actions, and run on the main thread like any other. The spring is approximated by
+ * an interpolator which overshoots and settles over a fixed duration, it isn't simulated.
+ * The resting position of each snap back is kept in a pooled entry so a new touch can
+ * interrupt the animation, picking the view up where it is while still knowing where it rests.
+ */
+public class DragAndDropAnimator {
+
+    // Public so a view drawing its own drags, such as a canvas of cells, can feel the same.
+    public static final int SNAP_BACK_DURATION =300;
+    public static final int HOVER_DURATION =150;
+    // Scale applied to an overlapped view to highlight it.
+    public static final float OVERLAP_SCALE =1.1f;
+
+    // Overshoots once and settles back, an approximation of a lightly damped spring.
+    public static final Interpolator SPRING_INTERPOLATOR = new OvershootInterpolator(1.5f);
+
+    DragAndDropAnimator(){}
+
+    /** Resting position of a view which is snapping back. */
+    private static final class SnapBack {
+        private View view =null;
+        private float restX, restY;
+        private long endTime;
+    }
+
+    // Entries are reused once their animation has ended, so snapping back doesn't allocate.
+    private final ArrayList<SnapBack> snapBacks = new ArrayList<>();
+
+    /** Scale a view which is hovering is heading for. */
+    private static final class Hover {
+        private View view =null;
+        private float scaleX, scaleY;
+        private long endTime;
+    }
+
+    // Hovers are started without an animator instance, always from the main thread.
+    private static final ArrayList<Hover> hovers = new ArrayList<>();
+
+    /**
+     * Animate a view back to its resting translation.
+     * @param view      The view to return.
+     * @param restX     Resting x translation.
+     * @param restY     Resting y translation.
+     * @param animateX  Return horizontally?
+     * @param animateY  Return vertically?
+     */
+    void snapBack(View view, float restX, float restY, boolean animateX, boolean animateY){
+        if(!animateX){
+            restX =view.getTranslationX();
+        }
+        if(!animateY){
+            restY =view.getTranslationY();
+        }
+        if(restX == view.getTranslationX() && restY == view.getTranslationY()){
+            // Already at rest, so there is nothing to animate.
+            return;
+        }
+
+        long now =SystemClock.uptimeMillis();
+        SnapBack snapBack =find(view, now);
+        snapBack.view =view;
+        snapBack.restX =restX;
+        snapBack.restY =restY;
+        snapBack.endTime =now + SNAP_BACK_DURATION;
+
+        view.animate()
+                .translationX(restX)
+                .translationY(restY)
+                .setInterpolator(SPRING_INTERPOLATOR)
+                .setDuration(SNAP_BACK_DURATION)
+                .start();
+    }
+
+    /**
+     * If the view is snapping back, stop it where it is so a new touch can pick it up there.
+     * @param view  The view.
+     * @param rest  Given the resting x and y translation the view was heading for, if it was.
+     * @return      True if the view was snapping back.
+     */
+    boolean interrupt(View view, float[] rest){
+        long now =SystemClock.uptimeMillis();
+        for(int index =0; index <snapBacks.size(); index++){
+            SnapBack snapBack =snapBacks.get(index);
+            if(snapBack.view == view){
+                snapBack.view =null;
+                if(snapBack.endTime > now){
+                    // Cancelling stops every property, so carry on any hover from where it is.
+                    view.animate().cancel();
+                    resumeHover(view, now);
+                    rest[0] =snapBack.restX;
+                    rest[1] =snapBack.restY;
+                    return true;
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** Animate the scale of a view which is, or is no longer, being overlapped. */
+    static void hover(View view, float scaleX, float scaleY){
+        long now =SystemClock.uptimeMillis();
+        Hover hover =findHover(view, now);
+        hover.view =view;
+        hover.scaleX =scaleX;
+        hover.scaleY =scaleY;
+        hover.endTime =now + HOVER_DURATION;
+
+        view.animate()
+                .scaleX(scaleX)
+                .scaleY(scaleY)
+                .setInterpolator(SPRING_INTERPOLATOR)
+                .setDuration(HOVER_DURATION)
+                .start();
+    }
+
+    /** Restart the hover of a view whose animations were cancelled, for the time it had left. */
+    private static void resumeHover(View view, long now){
+        for(int index =0; index <hovers.size(); index++){
+            Hover hover =hovers.get(index);
+            if(hover.view == view){
+                if(hover.endTime > now){
+                    view.animate()
+                            .scaleX(hover.scaleX)
+                            .scaleY(hover.scaleY)
+                            .setInterpolator(SPRING_INTERPOLATOR)
+                            .setDuration(hover.endTime - now)
+                            .start();
+                }
+                return;
+            }
+        }
+    }
+
+    /** Find the hover of a view, or one whose animation has ended, or a new one. */
+    private static Hover findHover(View view, long now){
+        Hover free =null;
+        for(int index =0; index <hovers.size(); index++){
+            Hover hover =hovers.get(index);
+            if(hover.view == view){
+                return hover;
+            }
+            if(free ==null && (hover.view ==null || hover.endTime <= now)){
+                free =hover;
+            }
+        }
+        if(free ==null){
+            free = new Hover();
+            hovers.add(free);
+        }
+        return free;
+    }
+
+    /** Find the entry of a view, or one whose animation has ended, or a new one. */
+    private SnapBack find(View view, long now){
+        SnapBack free =null;
+        for(int index =0; index <snapBacks.size(); index++){
+            SnapBack snapBack =snapBacks.get(index);
+            if(snapBack.view == view){
+                return snapBack;
+            }
+            if(free ==null && (snapBack.view ==null || snapBack.endTime <= now)){
+                free =snapBack;
+            }
+        }
+        if(free ==null){
+            free = new SnapBack();
+            snapBacks.add(free);
+        }
+        return free;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample.DragAndDrop;
+
+import android.graphics.Rect;
+import android.view.View;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform cell grid over the hit rects of a list of {@link DragAndDropView}s,
+ * used to find which target contains a point without scanning every target.
+ */
+class DragAndDropIndex {
+
+    private final Rect scratchRect = new Rect();
+
+    private DragAndDropView[] targets = new DragAndDropView[0];
+    private int targetCount =0;
+
+    // Hit rects of the targets captured when the index was built.
+    private int[] lefts = new int[0];
+    private int[] tops = new int[0];
+    private int[] rights = new int[0];
+    private int[] bottoms = new int[0];
+
+    // Origin, cell size and dimensions of the grid in parent coordinates.
+    private int originX, originY;
+    private int cellSize =1;
+    private int columns =0, rows =0;
+
+    // Targets of each cell, cell i owns cellItems[cellStarts[i]] to cellItems[cellStarts[i+1]].
+    private int[] cellStarts = new int[1];
+    private int[] cellItems = new int[0];
+
+    /** Capture the hit rects of the targets and bucket them into cells. */
+    void build(List<DragAndDropView> dragAndDropViews){
+        targetCount =dragAndDropViews.size();
+        ensureTargetCapacity(targetCount);
+
+        if(targetCount ==0){
+            columns =0;
+            rows =0;
+            return;
+        }
+
+        int minX =Integer.MAX_VALUE, minY =Integer.MAX_VALUE;
+        int maxX =Integer.MIN_VALUE, maxY =Integer.MIN_VALUE;
+        long totalSize =0;
+
+        for(int index =0; index <targetCount; index++){
+            DragAndDropView dragAndDropView =dragAndDropViews.get(index);
+            targets[index] =dragAndDropView;
+            dragAndDropView.getView().getHitRect(scratchRect);
+            lefts[index] =scratchRect.left;
+            tops[index] =scratchRect.top;
+            rights[index] =scratchRect.right;
+            bottoms[index] =scratchRect.bottom;
+
+            // The overlapping target is scaled up, so bucket the rect it will grow into.
+            inflateForOverlap(scratchRect);
+            minX =Math.min(minX, scratchRect.left);
+            minY =Math.min(minY, scratchRect.top);
+            maxX =Math.max(maxX, scratchRect.right);
+            maxY =Math.max(maxY, scratchRect.bottom);
+            totalSize +=Math.max(scratchRect.width(), scratchRect.height());
+        }
+
+        // Cells about the size of an average target keep a handful of targets per cell.
+        originX =minX;
+        originY =minY;
+        cellSize =(int) Math.max(1, totalSize / targetCount);
+        columns =(maxX - minX) / cellSize +1;
+        rows =(maxY - minY) / cellSize +1;
+
+        int cellCount =columns * rows;
+        if(cellStarts.length < cellCount +1){
+            cellStarts = new int[cellCount +1];
+        } else{
+            Arrays.fill(cellStarts, 0, cellCount +1, 0);
+        }
+
+        // First pass counts the targets of each cell.
+        for(int index =0; index <targetCount; index++){
+            setInflatedRect(index);
+            int firstColumn =columnOf(scratchRect.left), lastColumn =columnOf(scratchRect.right);
+            int firstRow =rowOf(scratchRect.top), lastRow =rowOf(scratchRect.bottom);
+            for(int row =firstRow; row <=lastRow; row++){
+                for(int column =firstColumn; column <=lastColumn; column++){
+                    cellStarts[row * columns + column +1]++;
+                }
+            }
+        }
+
+        // Convert counts into start offsets.
+        for(int cell =0; cell <cellCount; cell++){
+            cellStarts[cell +1] +=cellStarts[cell];
+        }
+        if(cellItems.length < cellStarts[cellCount]){
+            cellItems = new int[cellStarts[cellCount]];
+        }
+
+        // Second pass fills the cells in target order, so each cell stays in list order.
+        for(int index =0; index <targetCount; index++){
+            setInflatedRect(index);
+            int firstColumn =columnOf(scratchRect.left), lastColumn =columnOf(scratchRect.right);
+            int firstRow =rowOf(scratchRect.top), lastRow =rowOf(scratchRect.bottom);
+            for(int row =firstRow; row <=lastRow; row++){
+                for(int column =firstColumn; column <=lastColumn; column++){
+                    cellItems[cellStarts[row * columns + column]++] =index;
+                }
+            }
+        }
+
+        // Filling advanced every start to the next cell's start, so shift them back.
+        for(int cell =cellCount; cell >0; cell--){
+            cellStarts[cell] =cellStarts[cell -1];
+        }
+        cellStarts[0] =0;
+    }
+
+    /**
+     * Find the first target, in list order, which contains the point.
+     * @param x         X coordinate in parent coordinates.
+     * @param y         Y coordinate in parent coordinates.
+     * @param current   The currently overlapping target, tested against its live hit rect.
+     * @param exclude   The active view, which is never returned.
+     * @param group     Views dragged along with the active view, never returned, may be null.
+     * @return          The containing target or null.
+     */
+    DragAndDropView query(int x, int y, DragAndDropView current, View exclude,
+                          DragAndDropSelection group){
+        if(columns ==0 || x <originX || y <originY){
+            return null;
+        }
+        int column =(x - originX) / cellSize;
+        int row =(y - originY) / cellSize;
+        if(column >=columns || row >=rows){
+            return null;
+        }
+
+        int cell =row * columns + column;
+        for(int item =cellStarts[cell]; item <cellStarts[cell +1]; item++){
+            int index =cellItems[item];
+            DragAndDropView target =targets[index];
+            if(target.getView() == exclude || (group !=null && group.contains(target.getView()))){
+                // We don't want to check the active view against itself or its group.
+                continue;
+            }
+
+            if(target == current){
+                // The overlapping target has been scaled, so test its live hit rect.
+                target.getView().getHitRect(scratchRect);
+                if(scratchRect.contains(x, y)){
+                    return target;
+                }
+            } else if(lefts[index] < rights[index] && tops[index] < bottoms[index]
+                    && x >= lefts[index] && x < rights[index]
+                    && y >= tops[index] && y < bottoms[index]){
+                return target;
+            }
+        }
+        return null;
+    }
+
+    private void setInflatedRect(int index){
+        scratchRect.set(lefts[index], tops[index], rights[index], bottoms[index]);
+        inflateForOverlap(scratchRect);
+    }
+
+    /** Grow a rect about its center by the overlap scale of {@link DragAndDropAnimator}. */
+    private static void inflateForOverlap(Rect rect){
+        int dx =(int) Math.ceil(rect.width() * (DragAndDropAnimator.OVERLAP_SCALE -1.0f) / 2);
+        int dy =(int) Math.ceil(rect.height() * (DragAndDropAnimator.OVERLAP_SCALE -1.0f) / 2);
+        rect.inset(-dx, -dy);
+    }
+
+    private int columnOf(int x){
+        return Math.min(columns -1, Math.max(0, (x - originX) / cellSize));
+    }
+
+    private int rowOf(int y){
+        return Math.min(rows -1, Math.max(0, (y - originY) / cellSize));
+    }
+
+    private void ensureTargetCapacity(int capacity){
+        if(targets.length < capacity){
+            targets = new DragAndDropView[capacity];
+            lefts = new int[capacity];
+            tops = new int[capacity];
+            rights = new int[capacity];
+            bottoms = new int[capacity];
+        } else{
+            // Release references to targets from a previous build.
+            Arrays.fill(targets, capacity, targets.length, null);
+        }
+    }
+}
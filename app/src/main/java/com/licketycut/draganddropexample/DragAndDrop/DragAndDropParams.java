@@ -25,6 +25,8 @@ public class DragAndDropParams {
     private View boundaryView =null;
     private ViewGroup parentView =null;
     private Integer overlapTag =null;
+    private boolean dragShadow =false;
+    private View scrollView =null;
 
     /** Create DragAndDropParams with boundary, parent and overlap tag. */
     public DragAndDropParams(View boundaryView, View parentView, int overlapTag){
@@ -50,6 +52,28 @@ public class DragAndDropParams {
         this.overlapTag = overlapTag;
     }
 
+    /**
+     * Drag a shadow of the view drawn once into the overlay of its parent,
+     * rather than the view itself, which stays untouched until it is dropped.
+     * @param dragShadow    Drag a shadow?
+     * @return              These params.
+     */
+    public DragAndDropParams setDragShadow(boolean dragShadow){
+        this.dragShadow = dragShadow;
+        return this;
+    }
+
+    /**
+     * Scroll a vertically scrolling view while a view is dragged near its top or bottom edge,
+     * so it can be dropped on targets which are out of view.
+     * @param scrollView    The scrolling ancestor of the parent view.
+     * @return              These params.
+     */
+    public DragAndDropParams setScrollView(View scrollView){
+        this.scrollView = scrollView;
+        return this;
+    }
+
     View getBoundaryView() {
         return boundaryView;
     }
@@ -61,4 +85,12 @@ public class DragAndDropParams {
     Integer getOverlapTag() {
         return overlapTag;
     }
+
+    boolean getDragShadow() {
+        return dragShadow;
+    }
+
+    View getScrollView() {
+        return scrollView;
+    }
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample.DragAndDrop;
+
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * Persistent list of the {@link DragAndDropView}s of a parent {@link ViewGroup}
+ * which are eligible for overlap, kept up to date as children are added and removed
+ * so that a touch down doesn't have to walk the children of the parent.
+ *
+ * The registry installs itself as the parent's {@link ViewGroup.OnHierarchyChangeListener}
+ * and as a {@link View.OnLayoutChangeListener} of each target, so a target added during a drag
+ * can be dropped on once it has been laid out.
+ * Changes it can't observe, such as a child being translated or its overlap tag
+ * or Z changing, should be reported with {@link #invalidate(View)}.
+ * A parent's own hierarchy listener should be set with
+ * {@link #setOnHierarchyChangeListener(ViewGroup, ViewGroup.OnHierarchyChangeListener)},
+ * which the registry passes events on to rather than replacing.
+ */
+public class DragAndDropRegistry
+        implements ViewGroup.OnHierarchyChangeListener, View.OnLayoutChangeListener {
+
+    // One registry per parent, weakly held so the parent can still be collected.
+    private static final WeakHashMap<ViewGroup, DragAndDropRegistry> registries =
+            new WeakHashMap<>();
+    // Hierarchy listeners set on parents through the registry, which are passed every event.
+    private static final WeakHashMap<ViewGroup, ViewGroup.OnHierarchyChangeListener>
+            hierarchyListeners = new WeakHashMap<>();
+
+    private final ViewGroup parent;
+    private final Integer overlapTag;
+
+    // Targets in the order they were added, which is the order the index tests them in,
+    // and the same targets by view so a child is found without scanning the list.
+    // A removed target is only taken out of the list when the list is next used.
+    private final ArrayList<DragAndDropView> targets = new ArrayList<>();
+    private final HashMap<View, DragAndDropView> targetsByView = new HashMap<>();
+    private boolean targetsDirty =false;
+
+    // Running maximum Z of the targets, recalculated only after the maximum is removed.
+    private float maxZ =-Float.MAX_VALUE;
+    private boolean maxZDirty =false;
+
+    // Spatial index over the targets, rebuilt on the next touch after anything changed.
+    private final DragAndDropIndex spatialIndex = new DragAndDropIndex();
+    private boolean indexDirty =true;
+
+    private DragAndDropRegistry(ViewGroup parent, Integer overlapTag){
+        this.parent = parent;
+        this.overlapTag = overlapTag;
+
+        // Register the children the parent already has.
+        for(int index = 0; index< parent.getChildCount(); ++index) {
+            addTarget(parent.getChildAt(index));
+        }
+        parent.setOnHierarchyChangeListener(this);
+    }
+
+    /**
+     * Get the registry of a parent, creating it if necessary.
+     * @param parent        Parent view whose children are the drop targets.
+     * @param overlapTag    Overlap tag the targets must have, if designated.
+     * @return              The registry attached to the parent.
+     */
+    static DragAndDropRegistry obtain(ViewGroup parent, Integer overlapTag){
+        DragAndDropRegistry registry =registries.get(parent);
+        if(registry ==null || !sameTag(registry.overlapTag, overlapTag)){
+            // A parent only holds one hierarchy listener,
+            // so a different overlap tag replaces the previous registry.
+            if(registry !=null){
+                registry.release();
+            }
+            registry = new DragAndDropRegistry(parent, overlapTag);
+            registries.put(parent, registry);
+        }
+        return registry;
+    }
+
+    /**
+     * Set the hierarchy listener of a parent, which keeps being called
+     * while the parent has a registry, instead of replacing the registry.
+     * @param parent    Parent view.
+     * @param listener  Listener to call as children are added and removed, or null for none.
+     */
+    public static void setOnHierarchyChangeListener(ViewGroup parent,
+                                                    ViewGroup.OnHierarchyChangeListener listener){
+        if(listener ==null){
+            hierarchyListeners.remove(parent);
+        } else{
+            hierarchyListeners.put(parent, listener);
+        }
+        if(!registries.containsKey(parent)){
+            parent.setOnHierarchyChangeListener(listener);
+        }
+    }
+
+    /**
+     * Report that a child has moved, or its overlap tag or Z has changed,
+     * so the registry of its parent re-reads it before the next touch.
+     */
+    public static void invalidate(View child){
+        if(child.getParent() instanceof ViewGroup){
+            DragAndDropRegistry registry =registries.get((ViewGroup) child.getParent());
+            if(registry !=null){
+                registry.refresh(child);
+            }
+        }
+    }
+
+    @Override
+    public void onChildViewAdded(View parent, View child) {
+        addTarget(child);
+        ViewGroup.OnHierarchyChangeListener listener =hierarchyListeners.get(this.parent);
+        if(listener !=null){
+            listener.onChildViewAdded(parent, child);
+        }
+    }
+
+    @Override
+    public void onChildViewRemoved(View parent, View child) {
+        removeTarget(child);
+        ViewGroup.OnHierarchyChangeListener listener =hierarchyListeners.get(this.parent);
+        if(listener !=null){
+            listener.onChildViewRemoved(parent, child);
+        }
+    }
+
+    private void addTarget(View child){
+        if(isEligible(child) && !targetsByView.containsKey(child)){
+            DragAndDropView dragAndDropView = new DragAndDropView(child);
+            targets.add(dragAndDropView);
+            targetsByView.put(child, dragAndDropView);
+            child.addOnLayoutChangeListener(this);
+            maxZ =Math.max(maxZ, ViewCompat.getZ(child));
+            indexDirty =true;
+        }
+    }
+
+    private void removeTarget(View child){
+        if(targetsByView.remove(child) !=null){
+            child.removeOnLayoutChangeListener(this);
+            if(ViewCompat.getZ(child) >=maxZ){
+                // The front most target has gone, find the next one when needed.
+                maxZDirty =true;
+            }
+            targetsDirty =true;
+            indexDirty =true;
+        }
+    }
+
+    @Override
+    public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                               int oldLeft, int oldTop, int oldRight, int oldBottom) {
+        if(left != oldLeft || top != oldTop || right != oldRight || bottom != oldBottom){
+            // The hit rect of a target has changed.
+            indexDirty =true;
+        }
+    }
+
+    /**
+     * Re-read the eligibility and Z of a child.
+     * Its resting scale is kept from when it was registered, as it may be mid hover now.
+     */
+    private void refresh(View child){
+        DragAndDropView target =targetsByView.get(child);
+        if(target !=null && !isEligible(child)){
+            removeTarget(child);
+        } else if(target ==null){
+            addTarget(child);
+        } else{
+            maxZDirty =true;
+            indexDirty =true;
+        }
+    }
+
+    /**
+     * Z which places the active view in front of every target.
+     * @param view  The active view.
+     */
+    float getFrontZ(View view){
+        if(maxZDirty){
+            compactTargets();
+            maxZ =-Float.MAX_VALUE;
+            for(int index = 0; index< targets.size(); ++index) {
+                maxZ =Math.max(maxZ, ViewCompat.getZ(targets.get(index).getView()));
+            }
+            maxZDirty =false;
+        }
+
+        float frontZ =ViewCompat.getZ(view);
+        if(maxZ >=frontZ){
+            // A target is in front of the active view, so move in front of it.
+            frontZ =maxZ +1.0f;
+        }
+        return frontZ;
+    }
+
+    /** The active view has been brought to the front with a new Z. */
+    void setFrontZ(View view, float frontZ){
+        if(isEligible(view)){
+            maxZ =Math.max(maxZ, frontZ);
+        }
+    }
+
+    /** Spatial index over the current targets, rebuilt if anything has changed. */
+    DragAndDropIndex getIndex(){
+        if(indexDirty){
+            compactTargets();
+            spatialIndex.build(targets);
+            indexDirty =false;
+        }
+        return spatialIndex;
+    }
+
+    ViewGroup getParent(){
+        return parent;
+    }
+
+    private boolean isEligible(View child){
+        if(overlapTag ==null){
+            // Without an overlap tag every child may be overlapped.
+            return true;
+        }
+        // We only want to consider views with the overlap tag for overlap events.
+        Boolean tag =(Boolean) child.getTag(overlapTag);
+        return tag != null && tag;
+    }
+
+    /** Take removed targets out of the list in one pass, keeping the rest in order. */
+    private void compactTargets(){
+        if(!targetsDirty){
+            return;
+        }
+        int kept =0;
+        for(int index = 0; index< targets.size(); ++index) {
+            DragAndDropView target =targets.get(index);
+            if(targetsByView.get(target.getView()) == target){
+                targets.set(kept++, target);
+            }
+        }
+        for(int index =targets.size() -1; index >=kept; --index) {
+            targets.remove(index);
+        }
+        targetsDirty =false;
+    }
+
+    /** Stop listening to the targets, once another registry has replaced this one. */
+    private void release(){
+        for(View child : targetsByView.keySet()){
+            child.removeOnLayoutChangeListener(this);
+        }
+        targetsByView.clear();
+        targets.clear();
+        targetsDirty =false;
+    }
+
+    private static boolean sameTag(Integer tag, Integer otherTag){
+        return tag ==null ? otherTag ==null : tag.equals(otherTag);
+    }
+}
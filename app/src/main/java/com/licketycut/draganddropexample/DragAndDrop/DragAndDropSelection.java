@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample.DragAndDrop;
+
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A set of selected {@link View}s which {@link DragAndDropTouchListener}
+ * drags and drops together when any one of them is dragged.
+ */
+public class DragAndDropSelection {
+
+    private final ArrayList<View> views = new ArrayList<>();
+    // Index of each view in views, so contains() and remove() stay constant time
+    // for large selections.
+    private final HashMap<View, Integer> indices = new HashMap<>();
+
+    // Listener to notify creator of selection changes.
+    private OnSelectionChangedListener listener =null;
+
+    public interface OnSelectionChangedListener {
+        // Listener callback for a view being selected or deselected.
+        void onSelectionChanged(View view, boolean selected);
+    }
+
+    /**
+     * Set listener for selection changes.
+     * @param listener OnSelectionChangedListener.
+     */
+    public void setOnSelectionChangedListener(OnSelectionChangedListener listener){
+        this.listener = listener;
+    }
+
+    /** Add a view to the selection, returns false if it was already selected. */
+    public boolean add(View view){
+        if(indices.containsKey(view)){
+            return false;
+        }
+        indices.put(view, views.size());
+        views.add(view);
+        if(listener !=null){
+            listener.onSelectionChanged(view, true);
+        }
+        return true;
+    }
+
+    /** Remove a view from the selection, returns false if it wasn't selected. */
+    public boolean remove(View view){
+        Integer index =indices.remove(view);
+        if(index ==null){
+            return false;
+        }
+        // Move the last view into the gap rather than shifting every view after it.
+        View last =views.remove(views.size() -1);
+        if(last != view){
+            views.set(index, last);
+            indices.put(last, index);
+        }
+        if(listener !=null){
+            listener.onSelectionChanged(view, false);
+        }
+        return true;
+    }
+
+    /** Select the view if it isn't selected, otherwise deselect it. */
+    public void toggle(View view){
+        if(!remove(view)){
+            add(view);
+        }
+    }
+
+    /** Deselect every view. */
+    public void clear(){
+        // Notify for each view in one pass, then empty both at once.
+        if(listener !=null){
+            for(int index =0; index <views.size(); index++){
+                listener.onSelectionChanged(views.get(index), false);
+            }
+        }
+        views.clear();
+        indices.clear();
+    }
+
+    public boolean contains(View view){
+        return indices.containsKey(view);
+    }
+
+    public int size(){
+        return views.size();
+    }
+
+    public boolean isEmpty(){
+        return views.isEmpty();
+    }
+
+    /** The selected views in no particular order, which must not be modified. */
+    public List<View> getViews(){
+        return views;
+    }
+}
@@ -17,11 +17,18 @@
 package com.licketycut.draganddropexample.DragAndDrop;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.os.Handler;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.util.List;
 
 /**
  * Custom {@link View.OnTouchListener  } to process touch events and move a view,
@@ -35,27 +42,68 @@ public class DragAndDropTouchListener implements View.OnTouchListener {
     public static final int IGNORE_VERTICAL =0x10;
     public static final int IGNORE_GESTURES =0x100;
     public static final int NO_SNAP_BACK =0x1000;
+    // Process drags once per display frame rather than once per move event.
+    public static final int FRAME_ALIGNED =0x10000;
 
-    // Handler and Runnable to detect long presses.
-    private final Handler handler = new Handler();
-    private Runnable longPressHandler;
+    // The most views which may be dragged at once, one per finger.
+    private static final int MAX_DRAGS =10;
+
+    // Distance in pixels from the top or bottom of the scroll view within which a drag scrolls it,
+    // and the most pixels it scrolls per frame, reached at the edge itself.
+    private static final int AUTO_SCROLL_EDGE =96;
+    private static final int AUTO_SCROLL_STEP =24;
 
-    private final GestureDetector gestureDetector;
+    // Handler to detect long presses.
+    private final Handler handler = new Handler();
 
     private View boundaryView =null;
 
     private ViewGroup parentView =null;
     private Integer overlapTag =null;
+    private View scrollView =null;
+    private final int[] scrollViewLocation = new int[2];
 
     // Switches to indicate what we will process.
     private boolean processX =true;
     private boolean processY =true;
     private boolean processGestures =true;
     private boolean snapBack =true;
+    private boolean frameAligned =false;
+    private boolean dragShadow =false;
+
+    // Views which are dragged and dropped together, if designated.
+    private DragAndDropSelection selection =null;
+
+    // Snap back animations, shared by every drag so a new touch can interrupt any of them.
+    private final DragAndDropAnimator animator = new DragAndDropAnimator();
+
+    // State of each drag in progress, allocated up front so a new finger doesn't allocate.
+    private final Drag[] drags = new Drag[MAX_DRAGS];
+
+    // In frame aligned mode, the pending moves of every drag are processed by one callback.
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private boolean frameCallbackPosted =false;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameCallbackPosted =false;
+            boolean scrolling =false;
+            for(Drag drag : drags){
+                drag.applyPendingMove();
+                scrolling |=drag.autoScroll();
+            }
+            if(scrolling){
+                // Keep scrolling until the touch leaves the edge or the scroll view can't scroll.
+                postFrameCallback();
+            }
+        }
+    };
 
     /** Default constructor which handles horizontal and vertical movements and gestures. */
     public DragAndDropTouchListener(Context context){
-        gestureDetector = new GestureDetector(context, new GestureListener());
+        for(int index =0; index <MAX_DRAGS; index++){
+            drags[index] = new Drag(context);
+        }
     }
 
     /** Constructor for specifying process flags only. */
@@ -76,6 +124,10 @@ public class DragAndDropTouchListener implements View.OnTouchListener {
         if((flags & NO_SNAP_BACK) == NO_SNAP_BACK){
             snapBack = false;
         }
+
+        if((flags & FRAME_ALIGNED) == FRAME_ALIGNED){
+            frameAligned = true;
+        }
     }
 
     /**
@@ -86,6 +138,8 @@ public class DragAndDropTouchListener implements View.OnTouchListener {
         boundaryView = params.getBoundaryView();
         parentView =params.getParentView();
         overlapTag = params.getOverlapTag();
+        dragShadow = params.getDragShadow();
+        scrollView = params.getScrollView();
     }
 
     /**
@@ -96,204 +150,651 @@ public class DragAndDropTouchListener implements View.OnTouchListener {
         boundaryView = params.getBoundaryView();
         parentView =params.getParentView();
         overlapTag = params.getOverlapTag();
+        dragShadow = params.getDragShadow();
+        scrollView = params.getScrollView();
     }
 
-
-    /** Start handler for delayed callback to test for long press. */
-    private void startLongPressHandler(final View view){
-        // If the user has touched and held for longer than our longPress threshold
-        // without moving then set our switch and callback OnLongPress.
-        longPressHandler = new Runnable() {
-            @Override
-            public void run() {
-                view.performLongClick();
-                onLongPress(view);
-            }
-        };
-        handler.postDelayed(longPressHandler, LONG_PRESS_ACTION_THRESHOLD);
+    /**
+     * Set the selection of views which are dragged together when any of them is dragged.
+     * @param selection DragAndDropSelection, or null to only drag single views.
+     */
+    public void setSelection(DragAndDropSelection selection){
+        this.selection = selection;
     }
 
-    private void stopLongPressHandler(){
-        handler.removeCallbacks(longPressHandler);
-        longPressHandler = null;
+    public DragAndDropSelection getSelection(){
+        return selection;
     }
 
-    // We only want to move the view if the user has actually dragged it a bit
-    // and not just touched it.
-    private boolean hasMoved = false;
-    // Initial x and y of the parent View.
-    private float initX, initY;
-    // Raw x and y values of users initial ACTION_DOWN touch event.
-    private float initTouchX, initTouchY;
     // The threshold of pixel variance that we are looking for as an intention to drag.
-    private static final int MOVEMENT_ACTION_THRESHOLD = 32;
+    // The thresholds are public so a view handling its own drags can feel the same.
+    public static final int MOVEMENT_ACTION_THRESHOLD = 32;
 
-    // Last time the user began an ACTION_DOWN touch event.
-    private long lastTouchDown;
     // If we receive ACTION_DOWN followed by ACTION_UP within the threshold
     // we'll consider it a click event.
-    private static final int CLICK_ACTION_THRESHOLD = 200;
-    private static final int LONG_PRESS_ACTION_THRESHOLD = 800;
+    public static final int CLICK_ACTION_THRESHOLD = 200;
+    public static final int LONG_PRESS_ACTION_THRESHOLD = 800;
 
-    private DragAndDropViews otherViews;
+    /**
+     * State of one view being dragged by one pointer.
+     * Each drag has its own overlap tracking, gesture detection and long press Runnable,
+     * so several views can be dragged at once by different fingers.
+     */
+    private final class Drag implements Runnable {
+
+        // The view being dragged and the pointer dragging it, null when this drag is free.
+        private View view =null;
+        private int pointerId;
+
+        // We only want to move the view if the user has actually dragged it a bit
+        // and not just touched it.
+        private boolean hasMoved = false;
+        // Initial x and y of the parent View.
+        private float initX, initY;
+        // Where the view rests and snaps back to, which is ahead of the initial x and y
+        // when the touch caught the view still snapping back from a previous drag.
+        private float restX, restY;
+        private final float[] rest = new float[2];
+        // Raw x and y values of users initial ACTION_DOWN touch event.
+        private float initTouchX, initTouchY;
+
+        // Last time the user began an ACTION_DOWN touch event.
+        private long lastTouchDown;
+
+        // Scroll of the scroll view at the initial touch, and the latest raw touch,
+        // so the view can follow the touch while the scroll view scrolls beneath it.
+        private int initScrollX, initScrollY;
+        private float lastRawX, lastRawY;
+
+        // In frame aligned mode, the latest position waiting for the next frame.
+        private boolean movePending =false;
+        private float pendingRawX, pendingRawY;
+
+        // When the view is selected, the rest of the selection is dragged along with it.
+        // The arrays only grow, so repeated group drags don't allocate.
+        private DragAndDropSelection group =null;
+        private int groupSize =0;
+        private View[] groupViews = new View[0];
+        private float[] groupInitX = new float[0];
+        private float[] groupInitY = new float[0];
+        private float[] groupRestX = new float[0];
+        private float[] groupRestY = new float[0];
+        private int[] groupLayerTypes = new int[0];
+
+        // In drag shadow mode, an image of the view which is dragged in its place.
+        // The image view, bitmap and canvas are kept for the next drag.
+        private final ImageView shadow;
+        private final Canvas shadowCanvas = new Canvas();
+        private Bitmap shadowBitmap =null;
+        private ViewGroup shadowParent =null;
+
+        private final GestureDetector gestureDetector;
+        private final DragAndDropViews otherViews = new DragAndDropViews();
+
+        Drag(Context context){
+            gestureDetector = new GestureDetector(context, new GestureListener());
+            shadow = new ImageView(context);
+            shadow.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        }
 
-    @Override
-    public boolean onTouch(View v, MotionEvent event) {
+        /** Start dragging a view with the pointer at index in the event. */
+        void start(View v, MotionEvent event, int index){
+            // User has started a chain of touch events by touching down.
+            view =v;
+            pointerId =event.getPointerId(index);
+            lastTouchDown = System.currentTimeMillis();
+            hasMoved = false;
+            movePending = false;
+            // Catch the view where it is if it is still snapping back from a previous drag.
+            boolean interrupted =animator.interrupt(v, rest);
+            initX = v.getTranslationX();
+            initY = v.getTranslationY();
+            restX = interrupted ? rest[0] : initX;
+            restY = interrupted ? rest[1] : initY;
+            initTouchX = rawX(event, index);
+            initTouchY = rawY(event, index);
+            if (scrollView != null) {
+                initScrollX = scrollView.getScrollX();
+                initScrollY = scrollView.getScrollY();
+            }
 
-        if(hasMoved){
-            // If we have a new event and the view has been moved
-            // then stop the runnable we have scheduled to test for long press.
-            stopLongPressHandler();
+            // Mark the view pressed while it is touched, as a view handling its own touches would.
+            // A scrolling parent may still take the touch until it becomes a drag.
+            v.setPressed(true);
+
+            startGroup(v);
+            // The shadow is drawn in front of everything,
+            // so there is no need to reorder the views of the parent.
+            otherViews.start(v, parentView, overlapTag, !dragShadow, group);
+
+            startLongPressHandler();
         }
 
-        switch (event.getAction()) {
-            case MotionEvent.ACTION_DOWN:
-                // User has started a chain of touch events by touching down.
-                lastTouchDown = System.currentTimeMillis();
-                hasMoved = false;
-                initX = v.getTranslationX();
-                initY = v.getTranslationY();
-                initTouchX = event.getRawX();
-                initTouchY = event.getRawY();
+        /** If the view is part of a selection, capture the selection to drag along with it. */
+        private void startGroup(View v){
+            group =null;
+            groupSize =0;
+            if(selection ==null || selection.size() <2 || !selection.contains(v)){
+                return;
+            }
 
-                otherViews =new DragAndDropViews(v, parentView, overlapTag, true);
+            group =selection;
+            List<View> views =selection.getViews();
+            if(groupViews.length < views.size()){
+                groupViews = new View[views.size()];
+                groupInitX = new float[views.size()];
+                groupInitY = new float[views.size()];
+                groupRestX = new float[views.size()];
+                groupRestY = new float[views.size()];
+                groupLayerTypes = new int[views.size()];
+            }
+            for(int index =0; index <views.size(); index++){
+                View groupView =views.get(index);
+                boolean interrupted =animator.interrupt(groupView, rest);
+                groupViews[index] =groupView;
+                groupInitX[index] =groupView.getTranslationX();
+                groupInitY[index] =groupView.getTranslationY();
+                groupRestX[index] =interrupted ? rest[0] : groupInitX[index];
+                groupRestY[index] =interrupted ? rest[1] : groupInitY[index];
+                // Render each view of the group into a hardware layer while it's dragged,
+                // so moving the group only updates layer positions rather than redrawing.
+                groupLayerTypes[index] =groupView.getLayerType();
+                groupView.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+            }
+            groupSize =views.size();
+        }
 
-                startLongPressHandler(v);
+        /** Restore the layers of the group and forget it. */
+        private void finishGroup(){
+            for(int index =0; index <groupSize; index++){
+                groupViews[index].setLayerType(groupLayerTypes[index], null);
+                groupViews[index] =null;
+            }
+            group =null;
+            groupSize =0;
+        }
 
-                if(processGestures){
-                    gestureDetector.onTouchEvent(event);
-                }
+        /** Draw the view into the shadow and show it in place of the view. */
+        private void showShadow(View v){
+            int width =v.getWidth(), height =v.getHeight();
+            if(width ==0 || height ==0 || !(v.getParent() instanceof ViewGroup)){
+                return;
+            }
 
-                // Issue onTouch callback.
-                onTouch(v);
+            // Reuse the bitmap of the previous drag if it's the same size.
+            if(shadowBitmap ==null
+                    || shadowBitmap.getWidth() != width || shadowBitmap.getHeight() != height){
+                shadowBitmap =Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                shadowCanvas.setBitmap(shadowBitmap);
+                shadow.setImageBitmap(shadowBitmap);
+            } else{
+                shadowBitmap.eraseColor(Color.TRANSPARENT);
+                shadow.invalidate();
+            }
+            v.draw(shadowCanvas);
+
+            // Place the shadow exactly over the view in the overlay of its parent.
+            shadowParent =(ViewGroup) v.getParent();
+            shadowParent.getOverlay().add(shadow);
+            shadow.layout(v.getLeft(), v.getTop(), v.getRight(), v.getBottom());
+            shadow.setTranslationX(v.getTranslationX());
+            shadow.setTranslationY(v.getTranslationY());
+            shadow.setScaleX(v.getScaleX());
+            shadow.setScaleY(v.getScaleY());
+        }
 
-                return true;
-            case MotionEvent.ACTION_UP:
-                // User has stopped touching.
-                if (hasMoved) {
-                    if(processGestures && !gestureDetector.onTouchEvent(event)) {
-                        // Process gestures as requested.
-                        if(otherViews.isOverlapping(v)){
-                            // Callback OnDrop with last overlapping view.
-                            View overlappingView =otherViews.removeOverlappingView();
-                            if (onDrop(v,true, overlappingView)){
-                                // Event has been processed and consumed, so finish.
-                                return true;
-                            }
-                        } else{
-                            // Callback OnDrop with no overlapping view.
-                            if(onDrop(v, false, null)){
-                                // Event has been processed and consumed, so finish.
-                                return true;
-                            }
-                        }
+        private void hideShadow(){
+            if(shadowParent !=null){
+                shadowParent.getOverlay().remove(shadow);
+                shadowParent =null;
+            }
+        }
 
-                        if(snapBack) {
-                            // If the event hasn't been processed yet,
-                            // return to the initial coordinates as requested.
-                            if (processX) {
-                                v.setTranslationX(initX);
-                            }
-                            if (processY) {
-                                v.setTranslationY(initY);
-                            }
-                        }
+        /** The view whose position follows the touch, the shadow if it is showing. */
+        private View dragged(){
+            return shadowParent !=null ? shadow : view;
+        }
 
-                    }
-                } else{
-                    // If user has stopped touching before the threshold,
-                    // stop the runnable we have scheduled to test for long press.
-                    stopLongPressHandler();
-                    if(System.currentTimeMillis() - lastTouchDown < CLICK_ACTION_THRESHOLD){
-                        // If the user has touched and released within our click threshold,
-                        // forward the click to the view.
-                        v.performClick();
-                        // Event has been processed so finish.
-                        return onClick(v);
+        /** Finish the drag and make this state available to another pointer. */
+        void release(){
+            hideShadow();
+            finishGroup();
+            stopLongPressHandler();
+            if(view !=null){
+                view.setPressed(false);
+            }
+            view =null;
+            movePending =false;
+        }
+
+        /** Start handler for delayed callback to test for long press. */
+        private void startLongPressHandler(){
+            // If the user has touched and held for longer than our longPress threshold
+            // without moving then set our switch and callback OnLongPress.
+            handler.removeCallbacks(this);
+            handler.postDelayed(this, LONG_PRESS_ACTION_THRESHOLD);
+        }
+
+        private void stopLongPressHandler(){
+            handler.removeCallbacks(this);
+        }
+
+        /** Long press callback, this Runnable is reused for every touch of this drag. */
+        @Override
+        public void run() {
+            if(view !=null) {
+                view.performLongClick();
+                onLongPress(view);
+            }
+        }
+
+        /** Has the pointer, or in frame aligned mode any of its historical samples,
+         * moved far enough from the initial touch to be an intentional drag? */
+        private boolean exceedsMovementThreshold(MotionEvent event, int index){
+            if (Math.abs(initTouchX - rawX(event, index)) > MOVEMENT_ACTION_THRESHOLD
+                    || Math.abs(initTouchY - rawY(event, index)) > MOVEMENT_ACTION_THRESHOLD) {
+                return true;
+            }
+            if (frameAligned) {
+                // Historical samples are only given in view coordinates,
+                // so offset them by the difference between the raw and view coordinates.
+                float offsetX = event.getRawX() - event.getX();
+                float offsetY = event.getRawY() - event.getY();
+                for (int sample = 0; sample < event.getHistorySize(); sample++) {
+                    if (Math.abs(initTouchX - (event.getHistoricalX(index, sample) + offsetX))
+                            > MOVEMENT_ACTION_THRESHOLD
+                            || Math.abs(initTouchY - (event.getHistoricalY(index, sample) + offsetY))
+                            > MOVEMENT_ACTION_THRESHOLD) {
+                        return true;
                     }
                 }
-                break;
-            case MotionEvent.ACTION_MOVE:
-                // User is currently moving the view.
-                if (Math.abs(initTouchX - event.getRawX()) > MOVEMENT_ACTION_THRESHOLD
-                        || Math.abs(initTouchY - event.getRawY()) > MOVEMENT_ACTION_THRESHOLD) {
-                    // We've been dragged far enough to consider it an intentional drag event.
-                    hasMoved = true;
-
-                    // Calculate the next x and y positions based on movement
-                    // relative to the initial touch.
-                    int nextX = (int) (initX + (event.getRawX() - initTouchX));
-                    int nextY = (int) (initY + (event.getRawY() - initTouchY));
-
-                    // Set and update the new x and y of the view as requested.
-                    if (processX) {
-                        if (xWithinBounds(v, boundaryView, nextX)) {
-                            v.setTranslationX(nextX);
-                        }
-                    }
-                    if (processY) {
-                        if (yWithinBounds(v, boundaryView, nextY)) {
-                            v.setTranslationY(nextY);
-                        }
-                    }
+            }
+            return false;
+        }
 
-                    if (otherViews.isOverlapping(v)) {
-                        // We are overlapping another view.
-                        if (otherViews.wasOverlapping()) {
-                            // If we were overlapping another, callback onStopOverlap
-                            // with last overlapped view.
-                            onStopOverlap(v, otherViews.removeWasOverlapping());
-                        }
+        /** User is currently moving the view. */
+        boolean move(MotionEvent event){
+            int index =event.findPointerIndex(pointerId);
+            if (index < 0 || !exceedsMovementThreshold(event, index)) {
+                return hasMoved;
+            }
+            // We've been dragged far enough to consider it an intentional drag event.
+            if (!hasMoved) {
+                // The view has been moved so stop the runnable
+                // we have scheduled to test for long press.
+                hasMoved = true;
+                stopLongPressHandler();
+                // Now it's a drag, don't let a scrolling parent take the touch away from it.
+                if (view.getParent() != null) {
+                    view.getParent().requestDisallowInterceptTouchEvent(true);
+                }
+                if (dragShadow) {
+                    showShadow(view);
+                }
+            }
+
+            if (frameAligned) {
+                // Only remember the latest position, the drag is processed
+                // once per frame however many move events arrive before it.
+                pendingRawX = rawX(event, index);
+                pendingRawY = rawY(event, index);
+                movePending = true;
+                postFrameCallback();
+                if (processGestures) {
+                    // The gesture detector tracks velocity, so it still sees every event.
+                    gestureDetector.onTouchEvent(event);
+                }
+                return true;
+            }
+
+            if (dragTo(rawX(event, index), rawY(event, index))) {
+                // Event has been processed and consumed, so finish.
+                return true;
+            }
+
+            if (processGestures) {
+                // Process gestures as requested and finish.
+                return gestureDetector.onTouchEvent(event);
+            }
+            // Event has been processed and consumed, so finish.
+            return true;
+        }
 
-                        // Callback OnOverlap with overlapping view.
-                        View overlappingView = otherViews.getOverlappingView();
-                        if (onOverlap(v, overlappingView)) {
+        /** User has stopped touching. */
+        boolean up(MotionEvent event){
+            // Apply any move still waiting for a frame so we drop where the user let go.
+            applyPendingMove();
+
+            View v =view;
+            if (hasMoved) {
+                if(processGestures && !gestureDetector.onTouchEvent(event)) {
+                    // Process gestures as requested.
+                    if(otherViews.isOverlapping(dragged(), v)){
+                        // Callback OnDrop with last overlapping view.
+                        View overlappingView =otherViews.removeOverlappingView();
+                        if (drop(v,true, overlappingView)){
                             // Event has been processed and consumed, so finish.
+                            droppedAt(v);
                             return true;
                         }
-                    } else if (otherViews.wasOverlapping()) {
-                        // If we were overlapping a view but aren't anymore,
-                        // callback onStopOverlap with last overlapped view.
-                        View overlappingView = otherViews.removeWasOverlapping();
-                        if (onStopOverlap(v, overlappingView)) {
+                    } else{
+                        // Callback OnDrop with no overlapping view.
+                        if(drop(v, false, null)){
                             // Event has been processed and consumed, so finish.
+                            droppedAt(v);
                             return true;
                         }
                     }
 
+                    if (!snapBack && shadowParent != null) {
+                        // The drop wasn't handled and we shouldn't snap back,
+                        // so leave the view where its shadow was dropped.
+                        v.setTranslationX(shadow.getTranslationX());
+                        v.setTranslationY(shadow.getTranslationY());
+                    }
+                    if (snapBack) {
+                        // The view is heading back to where it started, so it hasn't moved.
+                        snapBack(v);
+                    } else {
+                        droppedAt(v);
+                    }
+                }
+                return true;
+            }
+
+            // If user has stopped touching before the threshold,
+            // stop the runnable we have scheduled to test for long press.
+            stopLongPressHandler();
+            if(System.currentTimeMillis() - lastTouchDown < CLICK_ACTION_THRESHOLD){
+                // If the user has touched and released within our click threshold,
+                // forward the click to the view.
+                v.performClick();
+                // Event has been processed so finish.
+                return onClick(v);
+            }
+            return false;
+        }
+
+        /** The touch has been cancelled, so put the view back where it started. */
+        void cancel(){
+            movePending =false;
+            if (hasMoved) {
+                // Nothing is dropped, so let the callbacks know the view has stopped overlapping
+                // anything it was over, then that the drag has been cancelled.
+                if (otherViews.isOverlapping(dragged(), view)) {
+                    onStopOverlap(view, otherViews.removeOverlappingView());
+                }
+                if (otherViews.wasOverlapping()) {
+                    onStopOverlap(view, otherViews.removeWasOverlapping());
+                }
+                onCancel(view);
+                if (snapBack) {
+                    snapBack(view);
+                } else {
+                    droppedAt(view);
+                }
+            }
+        }
+
+        /** Callback OnDrop for a single view, or for the whole group if dragging one. */
+        private boolean drop(View v, boolean wasOverlapping, View overlappingView){
+            if(group !=null){
+                return onDrop(v, group.getViews(), wasOverlapping, overlappingView);
+            }
+            return onDrop(v, wasOverlapping, overlappingView);
+        }
+
+        /** In frame aligned mode, process the latest move if one is waiting. */
+        void applyPendingMove(){
+            if (movePending) {
+                movePending = false;
+                dragTo(pendingRawX, pendingRawY);
+            }
+        }
+
+        /**
+         * Move the view to follow a raw touch position, test for overlap and make callbacks.
+         * @return  True if a callback consumed the event.
+         */
+        private boolean dragTo(float rawX, float rawY){
+            // In drag shadow mode the shadow moves and the view stays where it is.
+            View v =dragged();
+            lastRawX = rawX;
+            lastRawY = rawY;
+
+            // Calculate the next x and y positions based on movement
+            // relative to the initial touch.
+            int nextX = (int) (initX + (rawX - initTouchX));
+            int nextY = (int) (initY + (rawY - initTouchY));
+            if (scrollView != null) {
+                // Anything the scroll view has scrolled since the touch began
+                // has moved the parent beneath the touch, so move back by as much.
+                nextX += scrollView.getScrollX() - initScrollX;
+                nextY += scrollView.getScrollY() - initScrollY;
+            }
+
+            // Set and update the new x and y of the view as requested.
+            if (processX) {
+                if (xWithinBounds(v, boundaryView, nextX)) {
+                    v.setTranslationX(nextX);
+                }
+            }
+            if (processY) {
+                if (yWithinBounds(v, boundaryView, nextY)) {
+                    v.setTranslationY(nextY);
+                }
+            }
+
+            // Move the rest of the group by as much as the view has moved.
+            float deltaX = v.getTranslationX() - initX;
+            float deltaY = v.getTranslationY() - initY;
+            for (int index = 0; index < groupSize && v == view; index++) {
+                if (groupViews[index] != v) {
+                    groupViews[index].setTranslationX(groupInitX[index] + deltaX);
+                    groupViews[index].setTranslationY(groupInitY[index] + deltaY);
+                }
+            }
+
+            if (scrollView != null && autoScrollDelta(rawY) != 0) {
+                // The touch is near an edge of the scroll view, so start scrolling it.
+                postFrameCallback();
+            }
+
+            if (otherViews.isOverlapping(v, view)) {
+                // We are overlapping another view.
+                if (otherViews.wasOverlapping()) {
+                    // If we were overlapping another, callback onStopOverlap
+                    // with last overlapped view.
+                    onStopOverlap(view, otherViews.removeWasOverlapping());
+                }
+
+                // Callback OnOverlap with overlapping view.
+                View overlappingView = otherViews.getOverlappingView();
+                return onOverlap(view, overlappingView);
+            } else if (otherViews.wasOverlapping()) {
+                // If we were overlapping a view but aren't anymore,
+                // callback onStopOverlap with last overlapped view.
+                View overlappingView = otherViews.removeWasOverlapping();
+                return onStopOverlap(view, overlappingView);
+            }
+            return false;
+        }
+
+        /**
+         * While the touch is near the top or bottom of the scroll view, scroll it a step
+         * and drag the view along with it.
+         * @return  True if the scroll view was scrolled.
+         */
+        boolean autoScroll(){
+            if (view == null || !hasMoved || scrollView == null) {
+                return false;
+            }
+            int delta = autoScrollDelta(lastRawY);
+            if (delta == 0) {
+                return false;
+            }
+            scrollView.scrollBy(0, delta);
+            dragTo(lastRawX, lastRawY);
+            return true;
+        }
+
+        /** Spring back to the resting coordinates. */
+        private void snapBack(View v){
+            animator.snapBack(v, restX, restY, processX, processY);
+            for (int index = 0; index < groupSize; index++) {
+                if (groupViews[index] != v) {
+                    animator.snapBack(groupViews[index],
+                            groupRestX[index], groupRestY[index], true, true);
+                }
+            }
+        }
+
+        /** If the view has been left somewhere new, let the drop targets know it has moved. */
+        private void droppedAt(View v){
+            if(v.getParent() !=null
+                    && (v.getTranslationX() != restX || v.getTranslationY() != restY)){
+                otherViews.moved(v);
+            }
+            for (int index = 0; index < groupSize; index++) {
+                View groupView = groupViews[index];
+                if (groupView != v && groupView.getParent() != null
+                        && (groupView.getTranslationX() != groupRestX[index]
+                        || groupView.getTranslationY() != groupRestY[index])) {
+                    otherViews.moved(groupView);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean onTouch(View v, MotionEvent event) {
+
+        // Each view receives its own stream of events, so the drag of this view
+        // is unaffected by other fingers dragging other views.
+        Drag drag =findDrag(v);
 
-                    if (processGestures) {
-                        // Process gestures as requested and finish.
-                        return gestureDetector.onTouchEvent(event);
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                if(drag ==null){
+                    drag =findDrag(null);
+                    if(drag ==null){
+                        // Every finger is already dragging, so ignore this one.
+                        return false;
                     }
-                    // Event has been processed and consumed, so finish.
-                    return true;
                 }
-                break;
+                drag.start(v, event, event.getActionIndex());
+
+                if(processGestures){
+                    drag.gestureDetector.onTouchEvent(event);
+                }
+
+                // Issue onTouch callback.
+                onTouch(v);
+
+                return true;
+            case MotionEvent.ACTION_POINTER_UP:
+                if(drag ==null || event.getPointerId(event.getActionIndex()) != drag.pointerId){
+                    // Another finger touching the same view has been lifted, which we ignore.
+                    return drag !=null;
+                }
+                // The finger dragging the view has been lifted, so treat it as the end of the drag.
+            case MotionEvent.ACTION_UP:
+                if(drag ==null){
+                    return false;
+                }
+                boolean result =drag.up(event);
+                drag.release();
+                return result;
+            case MotionEvent.ACTION_MOVE:
+                if(drag ==null){
+                    return false;
+                }
+                return drag.move(event);
+            case MotionEvent.ACTION_CANCEL:
+                if(drag !=null){
+                    drag.cancel();
+                    drag.release();
+                }
+                return false;
         }
         // Return false if we haven't consumed the event so it propagates to other handlers
         // Returning true tells os that we've handled it.
-        return hasMoved;
+        return drag !=null && drag.hasMoved;
+    }
+
+    /** Process pending moves and auto scrolling on the next frame, if not already posted. */
+    private void postFrameCallback(){
+        if(!frameCallbackPosted){
+            choreographer.postFrameCallback(frameCallback);
+            frameCallbackPosted =true;
+        }
     }
 
-    /** Test if the view with a new x coordinate remains inside of the boundary view. */
+    /**
+     * Pixels to scroll the scroll view this frame for a touch at a raw y,
+     * faster the closer the touch is to the edge, or 0 if it is not near an edge
+     * or the scroll view can't scroll any further that way.
+     */
+    private int autoScrollDelta(float rawY){
+        scrollView.getLocationOnScreen(scrollViewLocation);
+        float top =scrollViewLocation[1];
+        float bottom =top + scrollView.getHeight();
+
+        int delta =0;
+        if(rawY < top + AUTO_SCROLL_EDGE){
+            delta =-(int) Math.ceil(AUTO_SCROLL_STEP
+                    * Math.min(1.0f, (top + AUTO_SCROLL_EDGE - rawY) / AUTO_SCROLL_EDGE));
+        } else if(rawY > bottom - AUTO_SCROLL_EDGE){
+            delta =(int) Math.ceil(AUTO_SCROLL_STEP
+                    * Math.min(1.0f, (rawY - (bottom - AUTO_SCROLL_EDGE)) / AUTO_SCROLL_EDGE));
+        }
+        if(delta !=0 && !scrollView.canScrollVertically(delta)){
+            return 0;
+        }
+        return delta;
+    }
+
+    /** Find the drag of a view, or a free drag if view is null. */
+    private Drag findDrag(View view){
+        for(Drag drag : drags){
+            if(drag.view == view){
+                return drag;
+            }
+        }
+        return null;
+    }
+
+    /** Raw x of the pointer at index, since getRawX(int) isn't available before API 29. */
+    private static float rawX(MotionEvent event, int index){
+        return event.getX(index) + (event.getRawX() - event.getX());
+    }
+
+    /** Raw y of the pointer at index, since getRawY(int) isn't available before API 29. */
+    private static float rawY(MotionEvent event, int index){
+        return event.getY(index) + (event.getRawY() - event.getY());
+    }
+
+    /** Test if the view with a new x translation remains inside of the boundary view. */
     private boolean xWithinBounds(View v, View boundaryView, float x){
         if(boundaryView == null){
             // No boundary has been set so there is nothing to check.
             return true;
         }
-        float right =x+v.getWidth();
-        return x > boundaryView.getTranslationX()
+        // The view may be laid out away from the left of its parent.
+        float left =v.getLeft()+x;
+        float right =left+v.getWidth();
+        return left > boundaryView.getTranslationX()
                 && right < boundaryView.getTranslationX()+ boundaryView.getWidth();
     }
 
-    /** Test if the view with a new y coordinate remains inside of the boundary view. */
+    /** Test if the view with a new y translation remains inside of the boundary view. */
     private boolean yWithinBounds(View v, View boundaryView, float y){
         if(boundaryView == null){
             return true;
         }
-        float bottom =y+v.getHeight();
-        return y > boundaryView.getTranslationY()
+        float top =v.getTop()+y;
+        float bottom =top+v.getHeight();
+        return top > boundaryView.getTranslationY()
                 && bottom < boundaryView.getTranslationY()+ boundaryView.getHeight();
     }
 
@@ -357,6 +858,14 @@ public class DragAndDropTouchListener implements View.OnTouchListener {
     protected boolean onDrop(View view, boolean wasOverlapping, View overlappingView )
     { return false; }
 
+    /** The drag has been cancelled by the system, so the view won't be dropped. */
+    protected boolean onCancel(View view) { return false; }
+
+    /** Drop of a group of selected views, which defaults to a drop of the dragged view only. */
+    protected boolean onDrop(View view, List<View> views, boolean wasOverlapping,
+                             View overlappingView)
+    { return onDrop(view, wasOverlapping, overlappingView); }
+
     protected boolean onOverlap(View view, View overlappingView) { return false; }
 
     protected boolean onStopOverlap(View view, View overlappingView) { return false; }
@@ -23,11 +23,12 @@ class DragAndDropView{
 
     private final View view;
 
+    // Resting scale, captured once when the view is registered, since a later read
+    // could land in the middle of a hover.
     private final float baseScaleX;
     private final float baseScaleY;
 
     DragAndDropView(View view){
-
         this.view = view;
         baseScaleX =view.getScaleX();
         baseScaleY =view.getScaleY();
@@ -38,12 +39,12 @@ class DragAndDropView{
     }
 
     void setOverlapping(boolean overlapping){
+        // Spring into and out of the highlight rather than jumping.
         if(overlapping){
-                view.setScaleX(baseScaleX *1.1f);
-                view.setScaleY(baseScaleY *1.1f);
+            DragAndDropAnimator.hover(view, baseScaleX *DragAndDropAnimator.OVERLAP_SCALE,
+                    baseScaleY *DragAndDropAnimator.OVERLAP_SCALE);
         } else{
-                view.setScaleX(baseScaleX);
-                view.setScaleY(baseScaleY);
+            DragAndDropAnimator.hover(view, baseScaleX, baseScaleY);
         }
     }
 
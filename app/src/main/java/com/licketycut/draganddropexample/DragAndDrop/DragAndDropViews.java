@@ -21,28 +21,36 @@ import android.support.v4.view.ViewCompat;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.util.ArrayList;
+import java.util.List;
 
 /** A class to manage interactions between an active {@link View }
- * and a list of {@link DragAndDropView}s within a parent view. */
+ * and the {@link DragAndDropView}s of a {@link DragAndDropRegistry}. */
 class DragAndDropViews {
 
-    private final ArrayList<DragAndDropView> dragAndDropViews = new ArrayList<>();
+    // Targets of the parent view, maintained as the parent's children change.
+    private DragAndDropRegistry registry =null;
+    private final Rect viewRect = new Rect();
+
+    // Selected views dragged along with the active view, null for a single view drag.
+    private DragAndDropSelection group =null;
 
     private DragAndDropView overlappingView =null;
     private DragAndDropView wasOverlappingView =null;
 
     /**
-     * Initialize the list of DragAndDropViews attached to the parent view.
+     * Start tracking the active view against the DragAndDropViews attached to the parent view.
      * @param view          The active view.
      * @param parentView    Parent view, if designated.
      * @param overlapTag    Overlap tag to compare against, if designated.
      * @param bringToFront  Bring the active view to the front?
+     * @param group         Selected views dragged along with the active view, may be null.
      */
-    DragAndDropViews(View view, ViewGroup parentView, Integer overlapTag, boolean bringToFront){
+    void start(View view, ViewGroup parentView, Integer overlapTag, boolean bringToFront,
+               DragAndDropSelection group){
 
-        // Get the depth of the active view.
-        float frontZ =ViewCompat.getZ(view);
+        this.group =group;
+        overlappingView =null;
+        wasOverlappingView =null;
 
         ViewGroup parent =parentView;
         if(parent ==null){
@@ -50,72 +58,72 @@ class DragAndDropViews {
             parent =(ViewGroup) view.getParent();
         }
 
-        for(int index = 0; index< parent.getChildCount(); ++index) {
-            View childView =parent.getChildAt(index);
-            if(view.getId() != childView.getId()){
-
-                if(overlapTag !=null){
-                    // If the overlap tag has been specified.
-                    Boolean tag =(Boolean) childView.getTag(overlapTag);
-                    if(tag == null || !tag){
-                        // We only want to consider views with the overlap tag
-                        // for overlap events, so skip this one.
-                        continue;
-                    }
-                }
-
-                float thisZ =ViewCompat.getZ(childView);
-                if(thisZ >=frontZ){
-                    // If the child view is in front of the active view,
-                    // increase placeholder for front most view.
-                    frontZ=thisZ +1.0f;
-                }
-
-                // Add this child view to our list of drag and drop views.
-                DragAndDropView dragAndDropView = new DragAndDropView(childView);
-                dragAndDropViews.add(dragAndDropView);
-            }
+        if(registry ==null || registry.getParent() != parent){
+            registry =DragAndDropRegistry.obtain(parent, overlapTag);
         }
 
         if(bringToFront){
             // Bring active view to front as requested.
+            float frontZ =registry.getFrontZ(view);
             view.bringToFront();
             parent.invalidate();
             ViewCompat.setZ(view, frontZ);
+            registry.setFrontZ(view, frontZ);
+
+            if(group !=null){
+                // Keep the rest of the group level with the active view.
+                // Indexed rather than for-each, so a group drag doesn't allocate an Iterator.
+                List<View> groupViews =group.getViews();
+                for(int index =0; index <groupViews.size(); index++){
+                    View groupView =groupViews.get(index);
+                    ViewCompat.setZ(groupView, frontZ);
+                    registry.setFrontZ(groupView, frontZ);
+                }
+            }
         }
     }
 
+    /** The active view has been released somewhere other than where it started. */
+    void moved(View view){
+        DragAndDropRegistry.invalidate(view);
+    }
+
     /**
      * Test if the center of the active view is overlapping another.
      * @param view  The active view.
      * @return      True if the active view overlaps another.
      */
     boolean isOverlapping(View view){
+        return isOverlapping(view, view);
+    }
 
-        for(DragAndDropView dragAndDropView: dragAndDropViews) {
-            if (!dragAndDropView.getView().equals(view)) {
-                // We don't want to check the active view against itself.
-                View testView = dragAndDropView.getView();
-                Rect rect = new Rect();
-                view.getHitRect(rect);
-                Rect testRect = new Rect();
-                testView.getHitRect(testRect);
-
-                if (testRect.contains(rect.centerX(), rect.centerY())) {
-                    if (overlappingView == dragAndDropView) {
-                        return true;
-                    } else if (overlappingView != null) {
-                        // If the new overlapping view is not the previous overlapping view,
-                        // set the previous overlapping view to was overlapping view.
-                        overlappingView.setOverlapping(false);
-                        wasOverlappingView = overlappingView;
-                        overlappingView =null;
-                    }
-                        overlappingView = dragAndDropView;
-                        overlappingView.setOverlapping(true);
-                    return true;
-                }
+    /**
+     * Test if the center of a view standing in for the active view,
+     * such as its drag shadow, is overlapping another.
+     * @param hitView   The view whose position is tested.
+     * @param view      The active view.
+     * @return          True if the hit view overlaps a view other than the active view.
+     */
+    boolean isOverlapping(View hitView, View view){
+
+        hitView.getHitRect(viewRect);
+        DragAndDropView dragAndDropView =
+                registry.getIndex().query(viewRect.centerX(), viewRect.centerY(),
+                        overlappingView, view, group);
+
+        if (dragAndDropView != null) {
+            if (overlappingView == dragAndDropView) {
+                return true;
+            } else if (overlappingView != null) {
+                // If the new overlapping view is not the previous overlapping view,
+                // set the previous overlapping view to was overlapping view.
+                overlappingView.setOverlapping(false);
+                wasOverlappingView = overlappingView;
+                overlappingView =null;
             }
+            overlappingView = dragAndDropView;
+            overlappingView.setOverlapping(true);
+            return true;
         }
 
         if (overlappingView != null) {
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import java.io.File;
+
+/**
+ * A file of a folder listing, with whether it is a folder read once up front
+ * so a {@link FileFolderButton} can be bound to it without touching the file system.
+ */
+class FileEntry {
+
+    private final File file;
+    private final boolean isFolder;
+
+    FileEntry(File file){
+        this(file, file.isDirectory());
+    }
+
+    FileEntry(File file, boolean isFolder){
+        this.file =file;
+        this.isFolder =isFolder;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    boolean isFolder() {
+        return isFolder;
+    }
+}
@@ -17,15 +17,15 @@
 package com.licketycut.draganddropexample;
 
 import android.content.Context;
+import android.support.v4.text.PrecomputedTextCompat;
 import android.support.v4.view.ViewCompat;
-import android.support.v7.content.res.AppCompatResources;
+import android.support.v4.widget.TextViewCompat;
 import android.support.v7.widget.AppCompatButton;
 import android.util.AttributeSet;
 import android.view.Gravity;
-import android.view.ViewGroup;
-import android.widget.RelativeLayout;
 
 import java.io.File;
+import java.util.List;
 
 /** Extended {@link AppCompatButton} to represent files and folders for DragAndDropExample */
 public class FileFolderButton extends AppCompatButton {
@@ -43,41 +43,76 @@ public class FileFolderButton extends AppCompatButton {
     }
 
     /**
-     * Generate a new file or folder button.
+     * Generate a new file or folder button and add it to a layout.
      * @param context   Context.
      * @param file      The file to attach to this button.
-     * @param parent    The parent layout.
+     * @param parent    The parent layout, which lays the button out once it has a cell.
      * @param isFolder  Is this a folder or a file?
      */
-    public FileFolderButton(Context context, File file, RelativeLayout parent, boolean isFolder) {
+    public FileFolderButton(Context context, File file, FileFolderLayout parent, boolean isFolder) {
+        this(context, file, isFolder);
+        parent.addCell(this);
+    }
+
+    /**
+     * Generate a new file or folder button which hasn't been added to a layout,
+     * so many can be added together with {@link FileFolderGrid#addButtons(List)}.
+     * @param context   Context.
+     * @param file      The file to attach to this button.
+     * @param isFolder  Is this a folder or a file?
+     */
+    public FileFolderButton(Context context, File file, boolean isFolder) {
         super(context);
 
+        initLabel();
+        bind(file, isFolder);
+        setGravity(Gravity.CENTER);
+        setTextAlignment(AppCompatButton.TEXT_ALIGNMENT_CENTER);
+        setSoundEffectsEnabled(false);
+
+        FileFolderLayout.LayoutParams params = new FileFolderLayout.LayoutParams();
+
+        setLayoutParams(params);
+
+        setId(ViewCompat.generateViewId());
+    }
+
+    /**
+     * Attach the button to a file, so a recycled button can represent another file or folder.
+     * @param file      The file to attach to this button.
+     * @param isFolder  Is this a folder or a file?
+     */
+    void bind(File file, boolean isFolder){
         this.file =file;
         this.isFolder = isFolder;
         if(isFolder){
-            setBackground(AppCompatResources.getDrawable(context, R.drawable.ic_folder));
+            setBackground(IconCache.get(getContext(), R.drawable.ic_folder));
             // The tag that we will be using in our DragAndDropTouchListener
             // to identify this as a folder and available to be overlapped and dropped on.
             setTag(R.string.folder_tag, true);
 
         } else{
-            setBackground(AppCompatResources.getDrawable(context, R.drawable.ic_file));
+            setBackground(IconCache.get(getContext(), R.drawable.ic_file));
+            // A recycled folder button must no longer be dropped on.
+            setTag(R.string.folder_tag, null);
         }
 
-        setText(file.getName());
-        setGravity(Gravity.CENTER);
-        setTextAlignment(AppCompatButton.TEXT_ALIGNMENT_CENTER);
-        setSoundEffectsEnabled(false);
-
-        RelativeLayout.LayoutParams params = new RelativeLayout.LayoutParams(
-                ViewGroup.LayoutParams.WRAP_CONTENT,
-                ViewGroup.LayoutParams.WRAP_CONTENT);
-
-        setLayoutParams(params);
+        LabelCache.bind(this, file.getName());
+    }
 
-        setId(ViewCompat.generateViewId());
-        parent.addView(this);
+    /**
+     * Labels are put in capitals when they are measured, by {@link LabelCache},
+     * rather than by a transformation which would have to measure them again.
+     */
+    private void initLabel(){
+        setAllCaps(false);
+    }
 
+    /** Text metrics of every button's label, to measure labels ahead of binding them. */
+    static PrecomputedTextCompat.Params getLabelParams(Context context){
+        FileFolderButton template = new FileFolderButton(context);
+        template.initLabel();
+        return TextViewCompat.getTextMetricsParams(template);
     }
 
     public File getFile() {
@@ -0,0 +1,543 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.ValueAnimator;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.LruCache;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.animation.Interpolator;
+
+import com.licketycut.draganddropexample.DragAndDrop.DragAndDropAnimator;
+import com.licketycut.draganddropexample.DragAndDrop.DragAndDropTouchListener;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders every file of a folder in one {@link View}, as an alternative to
+ * a {@link FileFolderButton} per file.
+ *
+ * Icons, labels and the highlight of an overlapped folder are drawn straight onto the canvas
+ * for the rows in view, and touches are hit tested against the cells, so a folder of thousands
+ * of files costs no more views, drawables or accessibility nodes than an empty one.
+ * Cells are numbered row * columns + column in listing order, as in {@link FileFolderGrid}.
+ */
+public class FileFolderCanvasView extends View {
+
+    // Thresholds of DragAndDropTouchListener, so both renderers feel the same.
+    private static final int MOVEMENT_ACTION_THRESHOLD =
+            DragAndDropTouchListener.MOVEMENT_ACTION_THRESHOLD;
+    private static final int CLICK_ACTION_THRESHOLD =
+            DragAndDropTouchListener.CLICK_ACTION_THRESHOLD;
+    private static final int LONG_PRESS_ACTION_THRESHOLD =
+            DragAndDropTouchListener.LONG_PRESS_ACTION_THRESHOLD;
+
+    // Highlight of an overlapped folder and the snap back of a drag, as DragAndDropAnimator.
+    private static final float OVERLAP_SCALE =DragAndDropAnimator.OVERLAP_SCALE;
+    private static final int HOVER_DURATION =DragAndDropAnimator.HOVER_DURATION;
+    private static final int SNAP_BACK_DURATION =DragAndDropAnimator.SNAP_BACK_DURATION;
+    private static final Interpolator SPRING_INTERPOLATOR =DragAndDropAnimator.SPRING_INTERPOLATOR;
+
+    // Labels kept laid out, enough for a few screens of cells.
+    private static final int LABEL_CACHE_SIZE =256;
+    private static final int LABEL_TEXT_SIZE_SP =14;
+    private static final int LABEL_COLOR =0xDE000000;
+
+    /**
+     * The callbacks of {@link DragAndDropTouchListener} made for cells rather than views,
+     * which return false indicating we have not acted on the events.
+     */
+    public static class Callbacks {
+
+        protected boolean onClick(int cell) { return false; }
+
+        protected boolean onLongPress(int cell) { return false; }
+
+        protected boolean onTouch(int cell) { return false; }
+
+        protected boolean onDrag(int cell) { return false; }
+
+        protected boolean onDrop(int cell, boolean wasOverlapping, int overlappingCell)
+        { return false; }
+
+        protected boolean onOverlap(int cell, int overlappingCell) { return false; }
+
+        protected boolean onStopOverlap(int cell, int overlappingCell) { return false; }
+    }
+
+    private Callbacks callbacks = new Callbacks();
+
+    private ArrayList<FileEntry> entries = new ArrayList<>();
+
+    // One drawable of each kind, drawn into every cell.
+    private final Drawable fileDrawable;
+    private final Drawable folderDrawable;
+
+    private final TextPaint labelPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final LruCache<File, StaticLayout> labels = new LruCache<>(LABEL_CACHE_SIZE);
+
+    // Geometry of the grid, as FileFolderGrid calculates it for the viewport.
+    private int halfMargin =0;
+    private int columns =1;
+    private int pageRows =1;
+    private int columnPitch =0;
+    private int rowPitch =0;
+    private int cellWidth =0;
+    private int cellHeight =0;
+    private int viewportHeight =0;
+    private int contentHeight =0;
+
+    // Top of the viewport and the range of rows drawn for it.
+    private int viewportTop =0;
+    private int firstVisibleRow =0;
+    private int lastVisibleRow =-1;
+
+    // The cell being touched or dragged, -1 if none, and how far it has been dragged.
+    private int touchCell =-1;
+    private boolean hasMoved =false;
+    private float initTouchX, initTouchY;
+    private long lastTouchDown;
+    private float dragX, dragY;
+
+    // The folder being overlapped, -1 if none, and the folder whose highlight is drawn.
+    private int overlapCell =-1;
+    private int hoverCell =-1;
+    private float hoverScale =1.0f;
+
+    private final ValueAnimator hoverAnimator = new ValueAnimator();
+    private final ValueAnimator snapBackAnimator = ValueAnimator.ofFloat(1.0f, 0.0f);
+    private float snapBackX, snapBackY;
+
+    private final Runnable longPressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if(touchCell >=0 && !hasMoved){
+                performLongClick();
+                callbacks.onLongPress(touchCell);
+            }
+        }
+    };
+
+    /** Default constructors required by View */
+    public FileFolderCanvasView(Context context){
+        this(context, null);
+    }
+    public FileFolderCanvasView(Context context, AttributeSet attributeSet){
+        super(context, attributeSet);
+
+        fileDrawable =IconCache.get(context, R.drawable.ic_file);
+        folderDrawable =IconCache.get(context, R.drawable.ic_folder);
+
+        labelPaint.setColor(LABEL_COLOR);
+        labelPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP,
+                LABEL_TEXT_SIZE_SP, context.getResources().getDisplayMetrics()));
+
+        hoverAnimator.setInterpolator(SPRING_INTERPOLATOR);
+        hoverAnimator.setDuration(HOVER_DURATION);
+        hoverAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                hoverScale =(float) animation.getAnimatedValue();
+                invalidate();
+            }
+        });
+
+        snapBackAnimator.setInterpolator(SPRING_INTERPOLATOR);
+        snapBackAnimator.setDuration(SNAP_BACK_DURATION);
+        snapBackAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                float fraction =(float) animation.getAnimatedValue();
+                dragX =snapBackX * fraction;
+                dragY =snapBackY * fraction;
+                invalidate();
+            }
+        });
+        snapBackAnimator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                // The cell is back at rest, so it's drawn in its place again.
+                touchCell =-1;
+                invalidate();
+            }
+        });
+    }
+
+    public void setCallbacks(Callbacks callbacks){
+        this.callbacks =callbacks;
+    }
+
+    /**
+     * Size the cells to suit the current configuration, as {@link FileFolderGrid} does.
+     * @param viewport      Scrolling view which shows part of this view.
+     * @param cellSizeDp    Cell size represented in dp
+     * @param marginDp      Margin size represented in dp.
+     */
+    void setGeometry(View viewport, int cellSizeDp, int marginDp){
+        // Calculate cell size and margin from dp to pixels.
+        DisplayMetrics displayMetrics =getResources().getDisplayMetrics();
+        int marginPx =(int) Math.ceil(marginDp * displayMetrics.density);
+        int cellSizePx =(int) Math.ceil(cellSizeDp * displayMetrics.density);
+
+        int widthPixels =viewport.getWidth();
+        viewportHeight =viewport.getHeight();
+
+        halfMargin =marginPx/2;
+        columns =Math.max(1, (widthPixels / (cellSizePx+marginPx))-1);
+        pageRows =Math.max(1, (viewportHeight / (cellSizePx+marginPx))-1);
+
+        columnPitch =widthPixels/columns;
+        rowPitch =viewportHeight/pageRows;
+        cellWidth =columnPitch - marginPx;
+        cellHeight =rowPitch - marginPx;
+
+        fileDrawable.setBounds(0, 0, cellWidth, cellHeight);
+        folderDrawable.setBounds(0, 0, cellWidth, cellHeight);
+        // Labels are laid out to the width of a cell.
+        labels.evictAll();
+
+        updateVisibleRows();
+        updateContentHeight();
+        invalidate();
+    }
+
+    /** Replace the files in the grid with a listing, cancelling any touch in progress. */
+    void setEntries(ArrayList<FileEntry> entries){
+        this.entries =entries;
+        resetTouch();
+        updateContentHeight();
+        invalidate();
+    }
+
+    /** The files in cell order, which is the model itself. */
+    ArrayList<FileEntry> getEntries(){
+        return entries;
+    }
+
+    /** The file of a cell. */
+    FileEntry getEntry(int cell){
+        return entries.get(cell);
+    }
+
+    /** Add files to the next cells. */
+    void addEntries(List<FileEntry> newEntries){
+        entries.addAll(newEntries);
+        updateContentHeight();
+        invalidate();
+    }
+
+    /** Follow the scroll of the viewport, redrawing only when other rows come into view. */
+    void setViewportTop(int viewportTop){
+        this.viewportTop =viewportTop;
+        if(updateVisibleRows()){
+            invalidate();
+        }
+    }
+
+    /** Number of cells which fit in the viewport. */
+    int getPageSize(){
+        return pageRows * columns;
+    }
+
+    /** First cell of the row at the top of the view. */
+    int getFirstVisibleCell(){
+        return rowPitch ==0 ? 0 : Math.max(0, (viewportTop - halfMargin) / rowPitch) * columns;
+    }
+
+    /** Scroll which brings the row of a cell to the top of the view. */
+    int getScrollYOfCell(int cell){
+        return rowPitch * (cell / columns);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        // Fill the width we're given and grow to hold every row.
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                resolveSize(Math.max(getSuggestedMinimumHeight(), contentHeight),
+                        heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int lastCell =Math.min(entries.size(), (lastVisibleRow +1) * columns);
+        for(int cell =firstVisibleRow * columns; cell <lastCell; cell++){
+            if(cell != touchCell){
+                drawCell(canvas, cell, 0, 0);
+            }
+        }
+        if(touchCell >=0 && touchCell <entries.size()){
+            // The touched cell is drawn last so it passes over the others while dragged.
+            drawCell(canvas, touchCell, dragX, dragY);
+        }
+    }
+
+    /** Draw the icon and label of a cell, offset by how far it has been dragged. */
+    private void drawCell(Canvas canvas, int cell, float offsetX, float offsetY){
+        FileEntry entry =entries.get(cell);
+        int saveCount =canvas.save();
+        canvas.translate(cellLeft(cell) + offsetX, cellTop(cell) + offsetY);
+        if(cell == hoverCell && hoverScale != 1.0f){
+            canvas.scale(hoverScale, hoverScale, cellWidth / 2f, cellHeight / 2f);
+        }
+
+        (entry.isFolder() ? folderDrawable : fileDrawable).draw(canvas);
+
+        StaticLayout label =getLabel(entry.getFile());
+        canvas.translate(0, (cellHeight - label.getHeight()) / 2f);
+        label.draw(canvas);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /** The label of a file, laid out once and kept while it's likely to be drawn again. */
+    @SuppressWarnings("deprecation")  // StaticLayout.Builder isn't available before API 23.
+    private StaticLayout getLabel(File file){
+        StaticLayout label =labels.get(file);
+        if(label ==null){
+            // Labels read the same as those of buttons.
+            String text =LabelCache.toLabel(file.getName());
+            label = new StaticLayout(text, labelPaint, Math.max(1, cellWidth),
+                    Layout.Alignment.ALIGN_CENTER, 1.0f, 0.0f, false);
+            labels.put(file, label);
+        }
+        return label;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                int cell =cellAt(event.getX(), event.getY());
+                if(cell <0){
+                    // Empty space, so leave the touch to the scroll view.
+                    return false;
+                }
+                // A new touch interrupts the snap back of the previous one.
+                snapBackAnimator.end();
+
+                touchCell =cell;
+                hasMoved =false;
+                initTouchX =event.getX();
+                initTouchY =event.getY();
+                dragX =0;
+                dragY =0;
+                lastTouchDown =System.currentTimeMillis();
+
+                postDelayed(longPressRunnable, LONG_PRESS_ACTION_THRESHOLD);
+
+                // Issue onTouch callback.
+                callbacks.onTouch(cell);
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if(touchCell <0 || snapBackAnimator.isRunning()){
+                    return false;
+                }
+                float deltaX =event.getX() - initTouchX;
+                float deltaY =event.getY() - initTouchY;
+                if(!hasMoved){
+                    if(Math.abs(deltaX) <= MOVEMENT_ACTION_THRESHOLD
+                            && Math.abs(deltaY) <= MOVEMENT_ACTION_THRESHOLD){
+                        // Not yet an intentional drag.
+                        return true;
+                    }
+                    hasMoved =true;
+                    removeCallbacks(longPressRunnable);
+                    // Now it's a drag, keep the scroll view from taking the touch away from it.
+                    getParent().requestDisallowInterceptTouchEvent(true);
+                    callbacks.onDrag(touchCell);
+                }
+                dragTo(deltaX, deltaY);
+                return true;
+            case MotionEvent.ACTION_UP:
+                removeCallbacks(longPressRunnable);
+                if(touchCell <0 || snapBackAnimator.isRunning()){
+                    return false;
+                }
+                return up();
+            case MotionEvent.ACTION_CANCEL:
+                removeCallbacks(longPressRunnable);
+                if(touchCell >=0 && !snapBackAnimator.isRunning()){
+                    if(hasMoved){
+                        // Put the cell back where it started.
+                        setOverlap(-1);
+                        snapBack();
+                    } else{
+                        touchCell =-1;
+                    }
+                }
+                return false;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    /** Move the touched cell as far as it has been dragged, test for overlap and make callbacks. */
+    private void dragTo(float deltaX, float deltaY){
+        // Keep the cell inside of this view.
+        int left =cellLeft(touchCell);
+        int top =cellTop(touchCell);
+        dragX =Math.max(-left, Math.min(getWidth() - cellWidth - left, deltaX));
+        dragY =Math.max(-top, Math.min(getHeight() - cellHeight - top, deltaY));
+        invalidate();
+
+        int folder =overlappedFolder();
+        if(folder != overlapCell){
+            int previous =overlapCell;
+            setOverlap(folder);
+            if(previous >=0){
+                // Callback onStopOverlap with the folder we were overlapping.
+                callbacks.onStopOverlap(touchCell, previous);
+            }
+            if(folder >=0){
+                // Callback onOverlap with the folder we are now overlapping.
+                callbacks.onOverlap(touchCell, folder);
+            }
+        }
+    }
+
+    /** The user has stopped touching, so callback onDrop or onClick. */
+    private boolean up(){
+        int cell =touchCell;
+        if(hasMoved){
+            boolean wasOverlapping =overlapCell >=0;
+            int overlappingCell =overlapCell;
+            setOverlap(-1);
+            if(callbacks.onDrop(cell, wasOverlapping, overlappingCell)){
+                // The drop has been handled, so the grid has likely been replaced already.
+                touchCell =-1;
+                invalidate();
+            } else{
+                snapBack();
+            }
+            return true;
+        }
+
+        touchCell =-1;
+        if(System.currentTimeMillis() - lastTouchDown < CLICK_ACTION_THRESHOLD){
+            // If the user has touched and released within our click threshold, it's a click.
+            performClick();
+            return callbacks.onClick(cell);
+        }
+        return false;
+    }
+
+    /** Spring the dragged cell back into its place. */
+    private void snapBack(){
+        snapBackX =dragX;
+        snapBackY =dragY;
+        snapBackAnimator.start();
+    }
+
+    /** Forget any touch in progress, because the cells have changed beneath it. */
+    private void resetTouch(){
+        removeCallbacks(longPressRunnable);
+        snapBackAnimator.cancel();
+        hoverAnimator.cancel();
+        touchCell =-1;
+        overlapCell =-1;
+        hoverCell =-1;
+        hoverScale =1.0f;
+    }
+
+    /** Spring a folder into, or the current one out of, the highlight. */
+    private void setOverlap(int cell){
+        overlapCell =cell;
+        hoverAnimator.cancel();
+        if(cell >=0){
+            hoverCell =cell;
+            hoverScale =1.0f;
+        }
+        hoverAnimator.setFloatValues(hoverScale, cell >=0 ? OVERLAP_SCALE : 1.0f);
+        hoverAnimator.start();
+    }
+
+    /** The folder beneath the center of the dragged cell, or -1 if none. */
+    private int overlappedFolder(){
+        float centerX =cellLeft(touchCell) + dragX + cellWidth / 2f;
+        float centerY =cellTop(touchCell) + dragY + cellHeight / 2f;
+        int cell =cellAt(centerX, centerY);
+        if(cell <0 || cell == touchCell || !entries.get(cell).isFolder()){
+            return -1;
+        }
+        return cell;
+    }
+
+    /** Hit test a point of this view against the cells, -1 if it's in a margin or empty cell. */
+    private int cellAt(float x, float y){
+        if(columnPitch ==0 || rowPitch ==0 || x < halfMargin || y < halfMargin){
+            return -1;
+        }
+        int column =(int) (x - halfMargin) / columnPitch;
+        int row =(int) (y - halfMargin) / rowPitch;
+        if(column >=columns
+                || x - cellLeft(column) >= cellWidth || y - cellTop(row * columns) >= cellHeight){
+            return -1;
+        }
+        int cell =row * columns + column;
+        return cell <entries.size() ? cell : -1;
+    }
+
+    private int cellLeft(int cell){
+        return halfMargin + columnPitch * (cell % columns);
+    }
+
+    private int cellTop(int cell){
+        return halfMargin + rowPitch * (cell / columns);
+    }
+
+    /** Find the rows in view, with one row either side for cells passing the edges. */
+    private boolean updateVisibleRows(){
+        if(rowPitch ==0){
+            return false;
+        }
+        int first =Math.max(0, (viewportTop - halfMargin) / rowPitch -1);
+        int last =(viewportTop + viewportHeight - halfMargin) / rowPitch +1;
+        if(first ==firstVisibleRow && last ==lastVisibleRow){
+            return false;
+        }
+        firstVisibleRow =first;
+        lastVisibleRow =last;
+        return true;
+    }
+
+    /** Grow or shrink to hold every row, so the viewport can scroll to it. */
+    private void updateContentHeight(){
+        int rows =(entries.size() + columns -1) / columns;
+        int height =halfMargin * 2 + rowPitch * rows;
+        if(height !=contentHeight){
+            contentHeight =height;
+            requestLayout();
+        }
+    }
+}
@@ -17,33 +17,64 @@
 package com.licketycut.draganddropexample;
 
 import android.content.Context;
+import android.graphics.Rect;
 import android.util.DisplayMetrics;
-import android.widget.RelativeLayout;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.View;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
 
+import com.licketycut.draganddropexample.DragAndDrop.DragAndDropRegistry;
+
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 /** Grid array of {@link FileFolderButton}s and methods to manipulate it. */
 class FileFolderGrid {
 
-    private final int widthPixels;
-    private final int heightPixels;
-    private final int halfMargin;
+    // Duration of a button moving to a new cell after the listing has changed.
+    private static final int MOVE_DURATION =200;
+    private static final Interpolator MOVE_INTERPOLATOR = new DecelerateInterpolator();
+
+    // Geometry of the grid, shared with VirtualFileFolderGrid.
+    final int widthPixels;
+    final int heightPixels;
+    final int halfMargin;
+    final int columns;
+    final int rows;
+
+    // Lays the buttons out in their cells.
+    final FileFolderLayout layout;
 
     private final FileFolderButton[][] fileFolderGrid;
-    private final int columns;
-    private final int rows;
     private final int nestedLimit;
 
+    // Buttons and their cells (row * columns + column) keyed by view:id, without boxing.
+    private final SparseArray<FileFolderButton> buttonsById = new SparseArray<>();
+    private final SparseIntArray cellsById = new SparseIntArray();
+
+    // One bit per cell, set when the cell is occupied.
+    private final long[] occupied;
+    private int occupiedCount =0;
+    // No word before this one has a free cell.
+    private int firstFreeWord =0;
+
     /**
      * Create a new grid to suit the current configuration.
      * @param context       Context.
-     * @param view          View into which to create the grid.
+     * @param view          View whose size the grid fills, the visible area if it scrolls.
+     * @param layout        Layout into which to place the buttons.
      * @param cellSizeDp      Cell size represented in dp
      * @param marginDp        Margin size represented in dp.
      * @param nestedLimit   Limit of available cells per grid.
      */
-    FileFolderGrid(Context context, RelativeLayout view, int cellSizeDp, int marginDp, int nestedLimit){
+    FileFolderGrid(Context context, View view, FileFolderLayout layout,
+                   int cellSizeDp, int marginDp, int nestedLimit){
 
+        this.layout =layout;
         this.nestedLimit =nestedLimit;
 
         // Calculate cell size and margin from dp to pixels.
@@ -61,94 +92,285 @@ class FileFolderGrid {
         rows =(heightPixels / (cellSizePx+marginPx))-1;
 
         fileFolderGrid = new FileFolderButton[rows][columns];
-        //clearGrid();
+        occupied = new long[(rows * columns + 63) / 64];
+
+        // Each button fills its cell, less the margin.
+        int columnPitch =widthPixels/columns;
+        int rowPitch =heightPixels/rows;
+        layout.setGeometry(halfMargin, columns, columnPitch, rowPitch,
+                columnPitch - marginPx, rowPitch - marginPx);
+    }
+
+    /** Index of the first free cell, or -1 if every cell is occupied. */
+    private int firstFreeCell(){
+        for(int word =firstFreeWord; word <occupied.length; word++){
+            if(occupied[word] != -1L){
+                // Remember where we found space so the next search starts here.
+                firstFreeWord =word;
+                int cell =word * 64 + Long.numberOfTrailingZeros(~occupied[word]);
+                return cell < rows * columns ? cell : -1;
+            }
+        }
+        firstFreeWord =occupied.length;
+        return -1;
+    }
+
+    private void setOccupied(int cell){
+        occupied[cell >> 6] |=1L << cell;
+        occupiedCount++;
+    }
+
+    private void setFree(int cell){
+        occupied[cell >> 6] &=~(1L << cell);
+        occupiedCount--;
+        firstFreeWord =Math.min(firstFreeWord, cell >> 6);
+    }
+
+    /** Number of cells holding a button. */
+    int getOccupiedCount(){
+        return occupiedCount;
     }
 
 
     /** Find the next available cell in the grid and fill it */
     void setNextOpenButton(FileFolderButton fileFolderButton){
-        for(int row =0; row <rows; row++){
-            for(int column =0; column <columns; column++){
-                if(fileFolderGrid[row][column] ==null) {
-                    // If this cell is available then fill it.
-                    fileFolderGrid[row][column] = fileFolderButton;
-
-                    // If column or row equals zero then half the margin will be correct.
-                    int x =halfMargin, y =halfMargin;
-
-                    // Add column / row by pixel position as needed.
-                    if(column >0){
-                        x +=(widthPixels/columns) *column;
-                    }
-                    if(row >0){
-                        y +=(heightPixels/rows) * row;
-                    }
-
-                    // Set the button to the appropriate place in the display.
-                    fileFolderButton.setX(x);
-                    fileFolderButton.setY(y);
-                    return;
-                }
+        int cell =firstFreeCell();
+        if(cell <0){
+            // The grid is full.
+            return;
+        }
+        int row =cell / columns;
+        int column =cell % columns;
+
+        // Fill the available cell.
+        fileFolderGrid[row][column] = fileFolderButton;
+        setOccupied(cell);
+        buttonsById.put(fileFolderButton.getId(), fileFolderButton);
+        cellsById.put(fileFolderButton.getId(), cell);
+
+        // Set the button to the appropriate place in the display.
+        layout.setCell(fileFolderButton, cell);
+    }
+
+    /**
+     * Place detached buttons in the next open cells and add them to the layout together,
+     * with one layout pass for the lot.
+     * @param fileFolderButtons Buttons in the order to fill the cells.
+     * @return                  Number of buttons placed, the rest don't fit and stay detached.
+     */
+    int addButtons(List<FileFolderButton> fileFolderButtons){
+        int count =Math.min(fileFolderButtons.size(), getFreeCount());
+        List<FileFolderButton> placed =fileFolderButtons.subList(0, count);
+
+        layout.beginBatch();
+        layout.addCells(placed);
+        for(FileFolderButton fileFolderButton : placed){
+            setNextOpenButton(fileFolderButton);
+        }
+        layout.endBatch();
+        return count;
+    }
+
+    /** Number of cells which fit in the viewport. */
+    int getPageSize(){
+        return rows * columns;
+    }
+
+    /** Number of buttons which can still be added before the grid is full. */
+    int getFreeCount(){
+        return Math.max(0, Math.min(nestedLimit, rows * columns) - occupiedCount);
+    }
+
+    /**
+     * Update the grid to a new sorted listing of the same folder. Buttons of files which are
+     * still listed are kept and moved to their new cells, the cells of new files are left empty.
+     * @param listing   Sorted listing of the folder.
+     * @param animate   Animate buttons moving to their new cells?
+     * @param added     Filled with the new files in order, whose buttons the caller creates
+     *                  with {@link #setNextOpenButton(FileFolderButton)} to fill the empty cells.
+     * @return          Buttons of files which are no longer listed, which the caller removes.
+     */
+    ArrayList<FileFolderButton> submitListing(List<FileEntry> listing, boolean animate,
+                                              ArrayList<FileEntry> added){
+        // Take every button out of the grid, keyed by its file.
+        HashMap<File, FileFolderButton> buttonsByFile = new HashMap<>();
+        for(FileFolderButton fileFolderButton : removeFileFolderButtons()){
+            buttonsByFile.put(fileFolderButton.getFile(), fileFolderButton);
+        }
+
+        int cellCount =rows * columns;
+        for(int cell =0; cell <listing.size() && cell <cellCount; cell++){
+            FileFolderButton fileFolderButton =buttonsByFile.remove(listing.get(cell).getFile());
+            if(fileFolderButton ==null){
+                // The file is new, leave its cell for the caller to fill.
+                added.add(listing.get(cell));
+                continue;
             }
+
+            int row =cell / columns;
+            int column =cell % columns;
+            fileFolderGrid[row][column] = fileFolderButton;
+            setOccupied(cell);
+            buttonsById.put(fileFolderButton.getId(), fileFolderButton);
+            cellsById.put(fileFolderButton.getId(), cell);
+            moveButton(fileFolderButton, cell, animate);
         }
+
+        // Whatever is left has been removed from the folder, or no longer fits.
+        return new ArrayList<>(buttonsByFile.values());
     }
 
-    /** Find the button in the grid and remove it */
+    /** Y of the buttons of a row in the boundary view. */
+    int cellY(int row){
+        // If row equals zero then half the margin will be correct.
+        return halfMargin + (heightPixels/rows) * row;
+    }
+
+    /**
+     * Move a button which is already in the layout to a new cell.
+     * When animated, the button slides from where it was into the new cell
+     * and the drop targets are told once it has arrived.
+     * @param fileFolderButton  The button to move.
+     * @param cell              The new cell.
+     * @param animate           Animate the move?
+     */
+    void moveButton(final FileFolderButton fileFolderButton, int cell, boolean animate){
+        // Where the button is drawn now, including any move still in progress.
+        float oldX =fileFolderButton.getX();
+        float oldY =fileFolderButton.getY();
+        boolean laidOut =fileFolderButton.getWidth() >0;
+
+        layout.setCell(fileFolderButton, cell);
+        if(!animate || !laidOut){
+            // Come to rest in the new cell straight away.
+            fileFolderButton.animate().cancel();
+            fileFolderButton.setTranslationX(0);
+            fileFolderButton.setTranslationY(0);
+            return;
+        }
+
+        float offsetX =oldX - fileFolderButton.getLeft();
+        float offsetY =oldY - fileFolderButton.getTop();
+        if(offsetX !=0 || offsetY !=0){
+            // Start from where it was drawn and slide into the new cell.
+            fileFolderButton.setTranslationX(offsetX);
+            fileFolderButton.setTranslationY(offsetY);
+            fileFolderButton.animate()
+                    .translationX(0)
+                    .translationY(0)
+                    .setInterpolator(MOVE_INTERPOLATOR)
+                    .setDuration(MOVE_DURATION)
+                    .withEndAction(new Runnable() {
+                        @Override
+                        public void run() {
+                            DragAndDropRegistry.invalidate(fileFolderButton);
+                        }
+                    })
+                    .start();
+        }
+    }
+
+    /** Find the button in the grid by its view:id and remove it */
     void removeButton(FileFolderButton fileFolderButton){
-        for(int row =0; row <rows; row++){
-            for(int column =0; column <columns; column++){
-                if(fileFolderGrid[row][column] ==fileFolderButton)
-                    fileFolderGrid[row][column] =null;
-            }
+        int id =fileFolderButton.getId();
+        int cell =cellsById.get(id, -1);
+        if(cell >=0 && buttonsById.get(id) ==fileFolderButton){
+            fileFolderGrid[cell / columns][cell % columns] =null;
+            setFree(cell);
+            buttonsById.remove(id);
+            cellsById.delete(id);
         }
     }
 
     /** Find the button referenced by the view:id and return it. */
     FileFolderButton findById(int id){
-        for(int row =0; row <rows; row++){
-            for(int column =0; column <columns; column++) {
-                if (fileFolderGrid[row][column] != null) {
-                    if (fileFolderGrid[row][column].getId() == id)
-                        return fileFolderGrid[row][column];
-                }
-            }
-        }
-        return null;
+        return buttonsById.get(id);
+    }
+
+    /**
+     * Find the range of cells whose buttons may intersect a rect in boundary view pixels.
+     * Buttons can be wider than their cell, so the range reaches one cell further up and left.
+     * @param rect  Rect to cover.
+     * @param range Filled with first row, first column, last row and last column.
+     * @return      False if the rect doesn't cover any cell.
+     */
+    boolean getCellRange(Rect rect, int[] range){
+        int columnPitch =widthPixels/columns;
+        int rowPitch =heightPixels/rows;
+
+        int firstColumn =Math.max(0, (rect.left - halfMargin) / columnPitch -1);
+        int firstRow =Math.max(0, (rect.top - halfMargin) / rowPitch -1);
+        int lastColumn =Math.min(columns -1, (rect.right - halfMargin) / columnPitch);
+        int lastRow =Math.min(getRowCount() -1, (rect.bottom - halfMargin) / rowPitch);
+
+        range[0] =firstRow;
+        range[1] =firstColumn;
+        range[2] =lastRow;
+        range[3] =lastColumn;
+        return rect.right >=halfMargin && rect.bottom >=halfMargin
+                && firstRow <=lastRow && firstColumn <=lastColumn;
+    }
+
+    /** Number of rows which may hold buttons. */
+    int getRowCount(){
+        return rows;
+    }
+
+    /** The button in a cell, or null if the cell is empty. */
+    FileFolderButton getButton(int row, int column){
+        return fileFolderGrid[row][column];
     }
 
     /** Remove all of the buttons from the grid and return them in an {@link ArrayList} */
     ArrayList<FileFolderButton> removeFileFolderButtons(){
         ArrayList<FileFolderButton> fileFolderButtonList = new ArrayList<>();
 
-        //We want to maintain array order in list and only add valid FileFolderButtons.
-        for(int row =0; row <rows; row++){
-            for(int column =0; column <columns; column++){
-                if(fileFolderGrid[row][column] !=null) {
-                    // Add the button to the list and clear it from the grid.
-                    fileFolderButtonList.add(fileFolderGrid[row][column]);
-                    fileFolderGrid[row][column] =null;
-                }
+        //We want to maintain array order in list and only add valid FileFolderButtons,
+        // so visit the set bits of each occupied word in order.
+        for(int word =0; word <occupied.length; word++){
+            long bits =occupied[word];
+            while(bits !=0){
+                int cell =word * 64 + Long.numberOfTrailingZeros(bits);
+                bits &=bits -1;
+
+                // Add the button to the list and clear it from the grid.
+                int row =cell / columns, column =cell % columns;
+                fileFolderButtonList.add(fileFolderGrid[row][column]);
+                fileFolderGrid[row][column] =null;
             }
+            occupied[word] =0;
         }
+        occupiedCount =0;
+        firstFreeWord =0;
+        buttonsById.clear();
+        cellsById.clear();
 
         return fileFolderButtonList;
     }
 
 
-    /** The grid is full if we have reached the array limits or nested limit. */
-    boolean isFull(){
-        for(int row =0; row <rows; row++){
-            for(int column =0; column <columns; column++){
-                if(column +(row*columns) >=nestedLimit){
-                    return true;
-                }
-                if(fileFolderGrid[row][column] ==null){
-                    return false;
-                }
+    /**
+     * The files of the buttons in cell order, so a grid for a new configuration
+     * can be filled without listing the folder again.
+     */
+    ArrayList<FileEntry> getEntries(){
+        ArrayList<FileEntry> entries = new ArrayList<>(occupiedCount);
+        for(int word =0; word <occupied.length; word++){
+            long bits =occupied[word];
+            while(bits !=0){
+                int cell =word * 64 + Long.numberOfTrailingZeros(bits);
+                bits &=bits -1;
+
+                FileFolderButton fileFolderButton =fileFolderGrid[cell / columns][cell % columns];
+                entries.add(new FileEntry(fileFolderButton.getFile(), fileFolderButton.isFolder()));
             }
         }
+        return entries;
+    }
 
-        // The array is full.
-        return true;
+    /** The grid is full if we have reached the array limits or nested limit. */
+    boolean isFull(){
+        int cell =firstFreeCell();
+        return cell <0 || cell >=nestedLimit;
     }
 }
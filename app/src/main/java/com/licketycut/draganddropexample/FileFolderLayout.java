@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.List;
+
+/**
+ * {@link ViewGroup} which places each child in a cell of a fixed size grid.
+ *
+ * Children are measured with exact specs and laid out straight from their cell index,
+ * so adding, removing or moving a child doesn't need a layout pass of the whole group.
+ * Layout requests made between {@link #beginBatch()} and {@link #endBatch()}
+ * are folded into one.
+ */
+public class FileFolderLayout extends ViewGroup {
+
+    // Geometry of the grid, set by FileFolderGrid.
+    private int halfMargin =0;
+    private int columns =1;
+    private int columnPitch =0;
+    private int rowPitch =0;
+    private int cellWidth =0;
+    private int cellHeight =0;
+
+    // Nesting depth of batches, and whether a layout was requested during one.
+    private int batchDepth =0;
+    private boolean layoutPending =false;
+
+    /** Default constructors required by ViewGroup */
+    public FileFolderLayout(Context context){
+        super(context);
+    }
+    public FileFolderLayout(Context context, AttributeSet attributeSet){
+        super(context, attributeSet);
+    }
+
+    /** {@link ViewGroup.LayoutParams} holding the cell of a child. */
+    public static class LayoutParams extends ViewGroup.LayoutParams {
+
+        // Cell of the child, row * columns + column, or -1 if it hasn't been placed.
+        int cell =-1;
+
+        public LayoutParams(){
+            super(WRAP_CONTENT, WRAP_CONTENT);
+        }
+
+        public LayoutParams(ViewGroup.LayoutParams source){
+            super(source);
+        }
+    }
+
+    /**
+     * Set the geometry of the grid.
+     * @param halfMargin    Offset of the first row and column.
+     * @param columns       Number of columns.
+     * @param columnPitch   Distance between the left edges of neighbouring columns.
+     * @param rowPitch      Distance between the top edges of neighbouring rows.
+     * @param cellWidth     Width of each child, unless the child's minimum width is wider.
+     * @param cellHeight    Height of each child, unless the child's minimum height is taller.
+     */
+    void setGeometry(int halfMargin, int columns, int columnPitch, int rowPitch,
+                     int cellWidth, int cellHeight){
+        this.halfMargin =halfMargin;
+        this.columns =Math.max(1, columns);
+        this.columnPitch =columnPitch;
+        this.rowPitch =rowPitch;
+        this.cellWidth =cellWidth;
+        this.cellHeight =cellHeight;
+        requestLayout();
+    }
+
+    /** Add a child without a layout pass, it's laid out once it has a cell. */
+    void addCell(View child){
+        ViewGroup.LayoutParams params =child.getLayoutParams();
+        if(params ==null){
+            params =generateDefaultLayoutParams();
+        }
+        addViewInLayout(child, -1, params, true);
+        invalidate();
+    }
+
+    /** Add children together, with one layout pass once they're all in. */
+    void addCells(List<? extends View> children){
+        for(View child : children){
+            ViewGroup.LayoutParams params =child.getLayoutParams();
+            if(params ==null){
+                params =generateDefaultLayoutParams();
+            }
+            addViewInLayout(child, -1, params, true);
+        }
+        invalidate();
+        // The lowest child may have moved, so the height may have changed.
+        requestLayout();
+    }
+
+    /** Remove a child without a layout pass. */
+    void removeCell(View child){
+        removeViewInLayout(child);
+        invalidate();
+    }
+
+    /** Place a child in a cell, laying it out directly rather than through a layout pass. */
+    void setCell(View child, int cell){
+        ((LayoutParams) child.getLayoutParams()).cell =cell;
+        if(child.getParent() == this){
+            layoutChild(child);
+        }
+    }
+
+    /** Hold layout requests until the matching {@link #endBatch()}. */
+    void beginBatch(){
+        batchDepth++;
+    }
+
+    /** Make one layout request for everything requested since {@link #beginBatch()}. */
+    void endBatch(){
+        if(batchDepth >0 && --batchDepth ==0 && layoutPending){
+            layoutPending =false;
+            super.requestLayout();
+        }
+    }
+
+    @Override
+    public void requestLayout() {
+        if(batchDepth >0){
+            // Children changing together only need one pass, made when the batch ends.
+            layoutPending =true;
+            return;
+        }
+        super.requestLayout();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int bottom =0;
+        for(int index =0; index <getChildCount(); index++){
+            View child =getChildAt(index);
+            if(child.getVisibility() != GONE){
+                measureCell(child);
+                int cell =((LayoutParams) child.getLayoutParams()).cell;
+                if(cell >=0){
+                    bottom =Math.max(bottom, cellTop(cell) + child.getMeasuredHeight());
+                }
+            }
+        }
+
+        // Fill the width we're given, and grow to the lowest child or the minimum height.
+        int width =resolveSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+        int height =resolveSize(Math.max(getSuggestedMinimumHeight(), bottom + halfMargin),
+                heightMeasureSpec);
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        for(int index =0; index <getChildCount(); index++){
+            View child =getChildAt(index);
+            if(child.getVisibility() != GONE){
+                layoutChild(child);
+            }
+        }
+    }
+
+    /** Measure a child if needed and lay it out at its cell. */
+    private void layoutChild(View child){
+        int cell =((LayoutParams) child.getLayoutParams()).cell;
+        if(cell <0){
+            return;
+        }
+        measureCell(child);
+        int childLeft =cellLeft(cell);
+        int childTop =cellTop(cell);
+        child.layout(childLeft, childTop,
+                childLeft + child.getMeasuredWidth(), childTop + child.getMeasuredHeight());
+    }
+
+    /** Measure a child with exact specs, which the child skips if nothing has changed. */
+    private void measureCell(View child){
+        int width =Math.max(cellWidth, child.getMinimumWidth());
+        int height =Math.max(cellHeight, child.getMinimumHeight());
+        child.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+    }
+
+    private int cellLeft(int cell){
+        return halfMargin + columnPitch * (cell % columns);
+    }
+
+    private int cellTop(int cell){
+        return halfMargin + rowPitch * (cell / columns);
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams();
+    }
+
+    @Override
+    public LayoutParams generateLayoutParams(AttributeSet attrs) {
+        return new LayoutParams(super.generateLayoutParams(attrs));
+    }
+
+    @Override
+    protected LayoutParams generateLayoutParams(ViewGroup.LayoutParams params) {
+        return new LayoutParams(params);
+    }
+
+    @Override
+    protected boolean checkLayoutParams(ViewGroup.LayoutParams params) {
+        return params instanceof LayoutParams;
+    }
+
+    @Override
+    public boolean shouldDelayChildPressedState() {
+        return false;
+    }
+}
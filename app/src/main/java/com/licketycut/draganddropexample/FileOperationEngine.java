@@ -0,0 +1,263 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs file system operations off the main thread.
+ *
+ * Operations on the same directory run one at a time in the order they were submitted,
+ * so a listing submitted after a change to a folder sees the change,
+ * while operations on different directories run alongside each other.
+ * Each operation reports back on the main thread, unless it has been cancelled.
+ *
+ * Callbacks are made on whichever host is attached, rather than on the one which submitted
+ * the operation, so an engine kept across configuration changes reports to the new activity.
+ * While no host is attached the callbacks wait, in order, for the next one.
+ * @param <H>   The host callbacks are made on.
+ */
+class FileOperationEngine<H> {
+
+    // Most directories worked on at once.
+    private static final int THREADS =2;
+
+    /**
+     * Work done on a background thread, with callbacks made on the main thread.
+     * An operation is kept until it has finished, so it should hold no reference to a host
+     * beyond the one its callbacks are given.
+     * @param <H>   The host callbacks are made on.
+     * @param <T>   Result of the work.
+     */
+    abstract static class Operation<H, T> {
+
+        // Task running the operation, which passes on its partial results.
+        private FileOperationEngine<H>.Task<T> task;
+
+        /** Do the work on a background thread, throwing if it fails. */
+        abstract T run() throws Exception;
+
+        /** Pass on a partial result from run(), which is given to onProgress. */
+        final void publish(T partial){
+            task.deliverProgress(partial);
+        }
+
+        /** A partial result has been published, before the work has finished. */
+        void onProgress(H host, T partial){}
+
+        /** The work has succeeded. */
+        void onSuccess(H host, T result){}
+
+        /** The work has failed, so undo anything which assumed it would succeed. */
+        void onFailure(H host, Exception e){}
+    }
+
+    /** A submitted operation, which can be cancelled until its callback has been made. */
+    final class Task<T> implements Runnable {
+
+        private final File directory;
+        private final Operation<H, T> operation;
+        private volatile boolean cancelled =false;
+
+        private Task(File directory, Operation<H, T> operation){
+            this.directory =directory;
+            this.operation =operation;
+            operation.task =this;
+        }
+
+        /** Skip the operation if it hasn't run yet, and its callback if it hasn't been made. */
+        void cancel(){
+            cancelled =true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if(!cancelled){
+                    T result =null;
+                    Exception error =null;
+                    try {
+                        result =operation.run();
+                    } catch (Exception e){
+                        error =e;
+                    }
+                    deliver(result, error);
+                }
+            } finally {
+                // Whatever happened, the next operation on the directory can start.
+                next(directory);
+            }
+        }
+
+        private void deliverProgress(final T partial){
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(cancelled || shutdown){
+                        return;
+                    }
+                    if(host ==null){
+                        waiting.add(this);
+                    } else{
+                        operation.onProgress(host, partial);
+                    }
+                }
+            });
+        }
+
+        private void deliver(final T result, final Exception error){
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(cancelled || shutdown){
+                        return;
+                    }
+                    if(host ==null){
+                        waiting.add(this);
+                    } else if(error !=null){
+                        operation.onFailure(host, error);
+                    } else{
+                        operation.onSuccess(host, result);
+                    }
+                }
+            });
+        }
+    }
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Host the callbacks are made on, and callbacks waiting for one. Main thread only.
+    private H host =null;
+    private final ArrayList<Runnable> waiting = new ArrayList<>();
+
+    // Operations waiting for each directory, which has an entry while one of them is running.
+    private final HashMap<File, ArrayDeque<Task<?>>> queues = new HashMap<>();
+    // Set once the owner has gone, after which nothing more is started or reported.
+    private volatile boolean shutdown =false;
+    // Run once the operations still running at shutdown have finished.
+    private Runnable whenStopped =null;
+
+    /**
+     * Queue an operation behind any others on the same directory.
+     * @param directory Directory the operation changes or reads.
+     * @param operation The operation.
+     * @return          Task which can be cancelled.
+     */
+    <T> Task<T> submit(File directory, Operation<H, T> operation){
+        Task<T> task = new Task<>(directory, operation);
+        synchronized (queues){
+            if(shutdown){
+                // Nothing is started once the owner has gone.
+                task.cancel();
+                return task;
+            }
+            ArrayDeque<Task<?>> queue =queues.get(directory);
+            if(queue ==null){
+                // Nothing is running on the directory, so start straight away.
+                queues.put(directory, new ArrayDeque<Task<?>>());
+                executor.execute(task);
+            } else{
+                queue.add(task);
+            }
+        }
+        return task;
+    }
+
+    /** Start the next operation on a directory, or mark it idle. */
+    private void next(File directory){
+        Runnable stopped =null;
+        synchronized (queues){
+            ArrayDeque<Task<?>> queue =queues.get(directory);
+            if(queue ==null){
+                return;
+            }
+            Task<?> task =shutdown ? null : queue.poll();
+            if(task !=null){
+                executor.execute(task);
+                return;
+            }
+            queues.remove(directory);
+            if(shutdown && queues.isEmpty()){
+                // The last operation running at shutdown has finished.
+                stopped =whenStopped;
+                whenStopped =null;
+            }
+        }
+        if(stopped !=null){
+            stopped.run();
+        }
+    }
+
+    /**
+     * Make callbacks on a host from now on, starting with those which were waiting for one.
+     * Called on the main thread.
+     */
+    void attach(H host){
+        this.host =host;
+        ArrayList<Runnable> callbacks = new ArrayList<>(waiting);
+        waiting.clear();
+        for(Runnable callback : callbacks){
+            callback.run();
+        }
+    }
+
+    /** Keep callbacks until a host is attached again, such as the next activity. */
+    void detach(){
+        host =null;
+    }
+
+    /**
+     * Cancel every operation waiting to run and stop, once the owner has gone for good.
+     * Operations already running are left to finish, but their callbacks aren't made.
+     * @param whenStopped   Run on a background thread once they have finished, to release
+     *                      whatever they were using. May be null.
+     */
+    void shutdown(Runnable whenStopped){
+        boolean stopped;
+        synchronized (queues){
+            shutdown =true;
+            for(ArrayDeque<Task<?>> queue : queues.values()){
+                for(Task<?> task : queue){
+                    task.cancel();
+                }
+                // Directories keep their entry until the operation running on them finishes.
+                queue.clear();
+            }
+            stopped =queues.isEmpty();
+            if(!stopped){
+                this.whenStopped =whenStopped;
+            }
+        }
+        if(stopped && whenStopped !=null){
+            executor.execute(whenStopped);
+        }
+        executor.shutdown();
+        // Callbacks already posted are dropped too.
+        mainHandler.removeCallbacksAndMessages(null);
+        waiting.clear();
+        host =null;
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The sort keys of a listing, read from disk once per file.
+ *
+ * A comparator of Files asks the file system for the attributes of both files
+ * at every comparison, so sorting n files that way reads attributes n log n times.
+ * Instead the attributes of each file are read once into arrays,
+ * and the indices of the files are sorted by those arrays,
+ * so sorting the same listing again in another order doesn't touch the disk at all.
+ * Long listings are sorted in parts on several threads, which are then merged.
+ */
+final class FileSortKeys {
+
+    // Listings at least this long are sorted on several threads.
+    private static final int PARALLEL_THRESHOLD =4096;
+    // Ranges this short are sorted by insertion rather than merged.
+    private static final int INSERTION_THRESHOLD =16;
+
+    private static final int THREADS =Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService sortExecutor = Executors.newFixedThreadPool(THREADS);
+
+    /** Compares two files of the listing by index. */
+    private abstract static class IndexComparator {
+        abstract int compare(int a, int b);
+    }
+
+    private final File[] files;
+    private final long[] modified;
+    private final long[] sizes;
+    private final boolean[] folders;
+    // Names in lower case, and their extensions, which are empty if they have none.
+    private final String[] names;
+    private final String[] types;
+
+    // The order the listing was last sorted in, the indices of its files in that order,
+    // and the files and entries in that order once they've been asked for.
+    private MainActivity.SortOrder sortedOrder =null;
+    private int[] sortedIndices =null;
+    private File[] sorted =null;
+    private ArrayList<FileEntry> sortedEntries =null;
+
+    private FileSortKeys(File[] files){
+        int count =files.length;
+        this.files =files;
+        modified = new long[count];
+        sizes = new long[count];
+        folders = new boolean[count];
+        names = new String[count];
+        types = new String[count];
+    }
+
+    /**
+     * Read the sort keys of a listing, safe to call from a background thread.
+     * @param files     The listing, which isn't changed.
+     * @param known     Keys of an earlier listing of the same folder,
+     *                  whose files aren't read again, or null to read every file.
+     * @return          The keys.
+     */
+    static FileSortKeys read(File[] files, FileSortKeys known){
+        HashMap<File, Integer> knownIndices =null;
+        if(known !=null){
+            knownIndices = new HashMap<>(known.files.length * 2);
+            for(int index =0; index <known.files.length; index++){
+                knownIndices.put(known.files[index], index);
+            }
+        }
+
+        FileSortKeys keys = new FileSortKeys(files);
+        for(int index =0; index <files.length; index++){
+            Integer knownIndex =knownIndices ==null ? null : knownIndices.get(files[index]);
+            if(knownIndex !=null){
+                keys.copy(index, known, knownIndex);
+            } else{
+                keys.read(index);
+            }
+        }
+        return keys;
+    }
+
+    private void read(int index){
+        File file =files[index];
+        modified[index] =file.lastModified();
+        folders[index] =file.isDirectory();
+        sizes[index] =folders[index] ? 0 : file.length();
+
+        String name =file.getName();
+        names[index] =name.toLowerCase(Locale.getDefault());
+        int dot =name.lastIndexOf('.');
+        types[index] =dot >0 ? name.substring(dot + 1).toLowerCase(Locale.getDefault()) : "";
+    }
+
+    private void copy(int index, FileSortKeys known, int knownIndex){
+        modified[index] =known.modified[knownIndex];
+        sizes[index] =known.sizes[knownIndex];
+        folders[index] =known.folders[knownIndex];
+        names[index] =known.names[knownIndex];
+        types[index] =known.types[knownIndex];
+    }
+
+    /**
+     * The listing in a sort order, safe to call from a background thread.
+     * @param order The sort order.
+     * @return      A new array of the files, sorted.
+     */
+    synchronized File[] sort(MainActivity.SortOrder order){
+        sortIn(order);
+        if(sorted ==null){
+            sorted = new File[files.length];
+            for(int index =0; index <sortedIndices.length; index++){
+                sorted[index] =files[sortedIndices[index]];
+            }
+        }
+        return sorted.clone();
+    }
+
+    /**
+     * The listing in a sort order as entries which know whether each file is a folder,
+     * so a grid can be filled without asking the file system, safe to call from a background
+     * thread. Asking once in the background leaves the entries ready for the main thread.
+     * @param order The sort order.
+     * @return      A new list of the entries, sorted.
+     */
+    synchronized ArrayList<FileEntry> entries(MainActivity.SortOrder order){
+        sortIn(order);
+        if(sortedEntries ==null){
+            sortedEntries = new ArrayList<>(files.length);
+            for(int index : sortedIndices){
+                sortedEntries.add(new FileEntry(files[index], folders[index]));
+            }
+        }
+        return new ArrayList<>(sortedEntries);
+    }
+
+    /** Sort the indices of the files in an order, unless they already are. */
+    private void sortIn(MainActivity.SortOrder order){
+        if(order ==sortedOrder){
+            return;
+        }
+        int[] indices = new int[files.length];
+        for(int index =0; index <indices.length; index++){
+            indices[index] =index;
+        }
+        sortIndices(indices, comparator(order));
+        sortedIndices =indices;
+        sorted =null;
+        sortedEntries =null;
+        sortedOrder =order;
+    }
+
+    /**
+     * The first files of the listing in a sort order, found without sorting the rest,
+     * safe to call from a background thread.
+     * @param order The sort order.
+     * @param count Most files to find.
+     * @return      Keys of just those files, which have already been sorted in the order.
+     */
+    synchronized FileSortKeys top(MainActivity.SortOrder order, int count){
+        IndexComparator comparator =comparator(order);
+        count =Math.max(0, Math.min(count, files.length));
+
+        // Keep the first files found so far in a heap with the last of them at its root,
+        // so each other file is compared with that one alone unless it belongs in the heap.
+        int[] heap = new int[count];
+        for(int index =0; index <files.length; index++){
+            if(index <count){
+                heap[index] =index;
+                siftUp(heap, index, comparator);
+            } else if(count >0 && comparator.compare(index, heap[0]) <0){
+                heap[0] =index;
+                siftDown(heap, comparator);
+            }
+        }
+        mergeSort(heap, new int[count], 0, count, comparator);
+
+        File[] topFiles = new File[count];
+        int[] topIndices = new int[count];
+        for(int index =0; index <count; index++){
+            topFiles[index] =files[heap[index]];
+            topIndices[index] =index;
+        }
+        FileSortKeys top = new FileSortKeys(topFiles);
+        for(int index =0; index <count; index++){
+            top.copy(index, this, heap[index]);
+        }
+        // Already in the order, so it needn't be sorted again.
+        top.sortedIndices =topIndices;
+        top.sortedOrder =order;
+        return top;
+    }
+
+    /** Move the last index of a heap up until no index above it comes after it. */
+    private static void siftUp(int[] heap, int child, IndexComparator comparator){
+        while(child >0){
+            int parent =(child - 1) / 2;
+            if(comparator.compare(heap[parent], heap[child]) >=0){
+                return;
+            }
+            swap(heap, parent, child);
+            child =parent;
+        }
+    }
+
+    /** Move the root of a heap down until no index below it comes before it. */
+    private static void siftDown(int[] heap, IndexComparator comparator){
+        int parent =0;
+        while(true){
+            int latest =parent;
+            int left =parent * 2 + 1;
+            int right =left + 1;
+            if(left <heap.length && comparator.compare(heap[left], heap[latest]) >0){
+                latest =left;
+            }
+            if(right <heap.length && comparator.compare(heap[right], heap[latest]) >0){
+                latest =right;
+            }
+            if(latest ==parent){
+                return;
+            }
+            swap(heap, parent, latest);
+            parent =latest;
+        }
+    }
+
+    private static void swap(int[] indices, int a, int b){
+        int index =indices[a];
+        indices[a] =indices[b];
+        indices[b] =index;
+    }
+
+    private IndexComparator comparator(MainActivity.SortOrder order){
+        switch(order){
+            case NAME:
+                // Alphanumerically with folders first.
+                return new IndexComparator() {
+                    @Override
+                    int compare(int a, int b) {
+                        int result =compareFolders(a, b);
+                        return result !=0 ? result : compareNames(a, b);
+                    }
+                };
+            case SIZE:
+                // Smallest first with folders first.
+                return new IndexComparator() {
+                    @Override
+                    int compare(int a, int b) {
+                        int result =compareFolders(a, b);
+                        if(result ==0){
+                            result =compareLongs(sizes[a], sizes[b]);
+                        }
+                        return result !=0 ? result : compareNames(a, b);
+                    }
+                };
+            case TYPE:
+                // By extension with folders first.
+                return new IndexComparator() {
+                    @Override
+                    int compare(int a, int b) {
+                        int result =compareFolders(a, b);
+                        if(result ==0){
+                            result =types[a].compareTo(types[b]);
+                        }
+                        return result !=0 ? result : compareNames(a, b);
+                    }
+                };
+            case MODIFIED:
+            default:
+                // Oldest first.
+                return new IndexComparator() {
+                    @Override
+                    int compare(int a, int b) {
+                        // Files modified together, such as a batch, stay in name order.
+                        int result =compareLongs(modified[a], modified[b]);
+                        return result !=0 ? result : compareNames(a, b);
+                    }
+                };
+        }
+    }
+
+    private int compareFolders(int a, int b){
+        return folders[a] ==folders[b] ? 0 : folders[a] ? -1 : 1;
+    }
+
+    private static int compareLongs(long a, long b){
+        return a <b ? -1 : a ==b ? 0 : 1;
+    }
+
+    /** Compare names alphanumerically, falling back on case if they're otherwise the same. */
+    private int compareNames(int a, int b){
+        int result =compareNatural(names[a], names[b]);
+        return result !=0 ? result : files[a].getName().compareTo(files[b].getName());
+    }
+
+    /**
+     * Compare names with runs of digits compared by their value, so "File 9" comes before
+     * "File 10", and the rest compared by character.
+     */
+    static int compareNatural(String a, String b){
+        int lengthA =a.length();
+        int lengthB =b.length();
+        int indexA =0;
+        int indexB =0;
+        while(indexA <lengthA && indexB <lengthB){
+            char charA =a.charAt(indexA);
+            char charB =b.charAt(indexB);
+            if(isDigit(charA) && isDigit(charB)){
+                // Skip leading zeros, then the longer run of digits is the larger number.
+                int startA =indexA;
+                while(startA <lengthA && a.charAt(startA) =='0'){
+                    startA++;
+                }
+                int startB =indexB;
+                while(startB <lengthB && b.charAt(startB) =='0'){
+                    startB++;
+                }
+                int endA =startA;
+                while(endA <lengthA && isDigit(a.charAt(endA))){
+                    endA++;
+                }
+                int endB =startB;
+                while(endB <lengthB && isDigit(b.charAt(endB))){
+                    endB++;
+                }
+                if(endA - startA != endB - startB){
+                    return (endA - startA) - (endB - startB);
+                }
+                // As long as each other, so the first digit which differs decides.
+                for(int offset =0; offset <endA - startA; offset++){
+                    int result =a.charAt(startA + offset) - b.charAt(startB + offset);
+                    if(result !=0){
+                        return result;
+                    }
+                }
+                indexA =endA;
+                indexB =endB;
+            } else{
+                if(charA !=charB){
+                    return charA - charB;
+                }
+                indexA++;
+                indexB++;
+            }
+        }
+        return (lengthA - indexA) - (lengthB - indexB);
+    }
+
+    private static boolean isDigit(char c){
+        return c >='0' && c <='9';
+    }
+
+    /** Stable sort of indices, in parts on several threads if there are enough of them. */
+    private static void sortIndices(final int[] indices, final IndexComparator comparator){
+        final int[] buffer = new int[indices.length];
+        int parts =indices.length <PARALLEL_THRESHOLD ? 1 : THREADS;
+        if(parts <2){
+            mergeSort(indices, buffer, 0, indices.length, comparator);
+            return;
+        }
+
+        // Sort each part on its own thread, the last on this one.
+        final int[] bounds = new int[parts + 1];
+        for(int part =0; part <=parts; part++){
+            bounds[part] =(int) ((long) indices.length * part / parts);
+        }
+        ArrayList<Future<?>> futures = new ArrayList<>(parts - 1);
+        for(int part =0; part <parts - 1; part++){
+            final int from =bounds[part];
+            final int to =bounds[part + 1];
+            futures.add(sortExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    mergeSort(indices, buffer, from, to, comparator);
+                    return null;
+                }
+            }));
+        }
+        mergeSort(indices, buffer, bounds[parts - 1], bounds[parts], comparator);
+        boolean interrupted =false;
+        for(Future<?> future : futures){
+            while(true){
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e){
+                    // The parts share the arrays, so wait for them anyway.
+                    interrupted =true;
+                } catch (ExecutionException e){
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+
+        // Merge neighbouring parts until there is one.
+        for(int width =1; width <parts; width *=2){
+            for(int part =0; part + width <parts; part +=2 * width){
+                merge(indices, buffer, bounds[part], bounds[part + width],
+                        bounds[Math.min(part + 2 * width, parts)], comparator);
+            }
+        }
+    }
+
+    /** Stable sort of a range of indices, using the same range of the buffer. */
+    private static void mergeSort(int[] indices, int[] buffer, int from, int to,
+                                  IndexComparator comparator){
+        if(to - from <=INSERTION_THRESHOLD){
+            for(int index =from + 1; index <to; index++){
+                int value =indices[index];
+                int hole =index;
+                while(hole >from && comparator.compare(indices[hole - 1], value) >0){
+                    indices[hole] =indices[hole - 1];
+                    hole--;
+                }
+                indices[hole] =value;
+            }
+            return;
+        }
+        int middle =(from + to) >>> 1;
+        mergeSort(indices, buffer, from, middle, comparator);
+        mergeSort(indices, buffer, middle, to, comparator);
+        merge(indices, buffer, from, middle, to, comparator);
+    }
+
+    /** Merge two neighbouring sorted ranges of indices, the first winning ties. */
+    private static void merge(int[] indices, int[] buffer, int from, int middle, int to,
+                              IndexComparator comparator){
+        if(comparator.compare(indices[middle - 1], indices[middle]) <=0){
+            // Already in order.
+            return;
+        }
+        System.arraycopy(indices, from, buffer, from, to - from);
+        int left =from;
+        int right =middle;
+        for(int index =from; index <to; index++){
+            if(right >=to || (left <middle
+                    && comparator.compare(buffer[left], buffer[right]) <=0)){
+                indices[index] =buffer[left++];
+            } else{
+                indices[index] =buffer[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.DrawableRes;
+import android.support.v7.content.res.AppCompatResources;
+import android.util.SparseArray;
+
+/**
+ * Shares the icons of {@link FileFolderButton}s, so a button doesn't inflate its own drawable.
+ *
+ * Each icon is inflated once and every button is given a new drawable from its constant state,
+ * which shares the parsed paths and the rendering cached for the size the buttons are drawn at.
+ * The icons are inflated again when the density or night mode changes.
+ * Only used from the main thread.
+ */
+final class IconCache {
+
+    // Constant state of each icon, keyed by drawable resource id.
+    private static final SparseArray<Drawable.ConstantState> states = new SparseArray<>();
+
+    // Configuration the icons were inflated for.
+    private static int densityDpi =0;
+    private static int uiMode =0;
+
+    private IconCache(){}
+
+    /**
+     * A drawable of an icon which shares its state with every other drawable of the icon,
+     * so it must not be mutated.
+     * @param context   Context.
+     * @param id        Drawable resource id of the icon.
+     * @return          A new drawable, or null if the resource couldn't be inflated.
+     */
+    static Drawable get(Context context, @DrawableRes int id){
+        Resources resources =context.getResources();
+        Configuration configuration =resources.getConfiguration();
+        if(configuration.densityDpi != densityDpi || configuration.uiMode != uiMode){
+            // Icons inflated for another density or theme would be drawn wrongly.
+            states.clear();
+            densityDpi =configuration.densityDpi;
+            uiMode =configuration.uiMode;
+        }
+
+        Drawable.ConstantState state =states.get(id);
+        if(state ==null){
+            Drawable drawable =AppCompatResources.getDrawable(context, id);
+            if(drawable ==null || drawable.getConstantState() ==null){
+                // Nothing to share, so this drawable is the button's own.
+                return drawable;
+            }
+            state =drawable.getConstantState();
+            states.put(id, state);
+            return drawable;
+        }
+        return state.newDrawable(resources);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.support.v4.text.PrecomputedTextCompat;
+import android.support.v4.widget.TextViewCompat;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Labels of {@link FileFolderButton}s measured ahead of time, keyed by file name.
+ *
+ * Labels are measured on a background thread while a folder is listed,
+ * so binding a button only sets text which has already been measured.
+ * A label is only used by a button whose text metrics match those it was measured with.
+ */
+final class LabelCache {
+
+    // Labels kept measured, and the most measured for one listing, which are those shown first.
+    private static final int CACHE_SIZE =1024;
+    private static final int PRECOMPUTE_LIMIT =512;
+
+    // LruCache is synchronized, so labels can be put from a background thread.
+    private static final LruCache<String, PrecomputedTextCompat> labels =
+            new LruCache<>(CACHE_SIZE);
+
+    private LabelCache(){}
+
+    /** The text shown for a file name, in capitals as buttons show their text. */
+    static String toLabel(String name){
+        return name.toUpperCase(Locale.getDefault());
+    }
+
+    /**
+     * Measure the labels of the first files of a listing, safe to call from a background thread.
+     * @param fileList  Listing in the order it will be shown.
+     * @param params    Text metrics of the buttons the labels will be shown in.
+     */
+    static void precompute(File[] fileList, PrecomputedTextCompat.Params params){
+        int count =Math.min(fileList.length, PRECOMPUTE_LIMIT);
+        for(int index =0; index <count; index++){
+            if(Thread.currentThread().isInterrupted()){
+                // The listing is no longer wanted.
+                return;
+            }
+            String name =fileList[index].getName();
+            PrecomputedTextCompat label =labels.get(name);
+            if(label ==null || !label.getParams().equals(params)){
+                labels.put(name, PrecomputedTextCompat.create(toLabel(name), params));
+            }
+        }
+    }
+
+    /**
+     * Set the label of a file name to a button, measured ahead if it has been,
+     * otherwise measured now.
+     */
+    static void bind(TextView textView, String name){
+        PrecomputedTextCompat label =labels.get(name);
+        if(label !=null
+                && label.getParams().equals(TextViewCompat.getTextMetricsParams(textView))){
+            TextViewCompat.setPrecomputedText(textView, label);
+        } else{
+            textView.setText(toLabel(name));
+        }
+    }
+}
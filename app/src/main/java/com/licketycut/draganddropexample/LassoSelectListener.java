@@ -0,0 +1,189 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.drawable.GradientDrawable;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+import com.licketycut.draganddropexample.DragAndDrop.DragAndDropSelection;
+
+/**
+ * {@link View.OnTouchListener } for the empty space of the boundary view
+ * which draws a rubber band and selects every {@link FileFolderButton} it touches.
+ * In a scrolling boundary view the lasso starts once the touch has been held still,
+ * so a swipe across empty space still scrolls.
+ */
+abstract class LassoSelectListener implements View.OnTouchListener {
+
+    private final DragAndDropSelection selection;
+    private final boolean holdToStart;
+
+    // The rubber band, drawn in the overlay of the boundary view.
+    private final GradientDrawable rubberBand = new GradientDrawable();
+    private final Rect lassoRect = new Rect();
+    private final Rect hitRect = new Rect();
+
+    // Initial x and y of the ACTION_DOWN touch event in the boundary view.
+    private int initTouchX, initTouchY;
+    private boolean lassoActive =false;
+
+    // In hold to start mode, starts the lasso if the touch is held until it runs.
+    private View lassoView =null;
+    private final Runnable startLassoRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if(lassoView !=null){
+                // Keep the scrolling parent from taking over now the lasso has started.
+                lassoView.getParent().requestDisallowInterceptTouchEvent(true);
+                startLasso(lassoView);
+            }
+        }
+    };
+
+    // Cell ranges covered by the lasso on the previous and current move,
+    // as first row, first column, last row and last column.
+    private final int[] lastRange = new int[4];
+    private final int[] range = new int[4];
+    private boolean hasLastRange =false;
+
+    /**
+     * Create a lasso which adds to a selection.
+     * @param selection     The selection to fill.
+     * @param color         Color int of the rubber band.
+     * @param holdToStart   Only start once the touch has been held, for a scrolling view.
+     */
+    LassoSelectListener(DragAndDropSelection selection, int color, boolean holdToStart){
+        this.selection = selection;
+        this.holdToStart = holdToStart;
+        rubberBand.setColor(Color.argb(48, Color.red(color), Color.green(color), Color.blue(color)));
+        rubberBand.setStroke(2, color);
+    }
+
+    /** The grid whose buttons may be selected. */
+    abstract FileFolderGrid getFileFolderGrid();
+
+    @Override
+    public boolean onTouch(View v, MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                // User has touched empty space, start a new selection.
+                initTouchX =(int) event.getX();
+                initTouchY =(int) event.getY();
+                if(holdToStart){
+                    lassoView =v;
+                    v.postDelayed(startLassoRunnable, ViewConfiguration.getLongPressTimeout());
+                } else{
+                    startLasso(v);
+                }
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if(lassoActive){
+                    updateLasso((int) event.getX(), (int) event.getY());
+                }
+                return lassoActive;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                // The touch has ended, or been taken by a scroll, before the lasso started.
+                v.removeCallbacks(startLassoRunnable);
+                lassoView =null;
+                if(lassoActive){
+                    lassoActive =false;
+                    v.getOverlay().remove(rubberBand);
+                    return true;
+                }
+                break;
+        }
+        return false;
+    }
+
+    /** Start a new selection at the initial touch. */
+    private void startLasso(View v){
+        lassoActive =true;
+        hasLastRange =false;
+        selection.clear();
+
+        lassoRect.set(initTouchX, initTouchY, initTouchX, initTouchY);
+        rubberBand.setBounds(lassoRect);
+        v.getOverlay().add(rubberBand);
+    }
+
+    /** Stretch the rubber band to the touch and update the selection. */
+    private void updateLasso(int touchX, int touchY){
+        lassoRect.set(Math.min(initTouchX, touchX), Math.min(initTouchY, touchY),
+                Math.max(initTouchX, touchX), Math.max(initTouchY, touchY));
+        rubberBand.setBounds(lassoRect);
+
+        FileFolderGrid fileFolderGrid =getFileFolderGrid();
+        if(fileFolderGrid ==null){
+            return;
+        }
+
+        boolean hasRange =fileFolderGrid.getCellRange(lassoRect, range);
+        if(!hasRange && !hasLastRange){
+            return;
+        }
+
+        // Only the cells the lasso covers now or covered last time can change,
+        // so visit the union of the two ranges rather than the whole grid.
+        int firstRow, firstColumn, lastRow, lastColumn;
+        if(hasRange && hasLastRange){
+            firstRow =Math.min(range[0], lastRange[0]);
+            firstColumn =Math.min(range[1], lastRange[1]);
+            lastRow =Math.max(range[2], lastRange[2]);
+            lastColumn =Math.max(range[3], lastRange[3]);
+        } else if(hasRange){
+            firstRow =range[0];
+            firstColumn =range[1];
+            lastRow =range[2];
+            lastColumn =range[3];
+        } else{
+            firstRow =lastRange[0];
+            firstColumn =lastRange[1];
+            lastRow =lastRange[2];
+            lastColumn =lastRange[3];
+        }
+
+        for(int row =firstRow; row <=lastRow; row++){
+            for(int column =firstColumn; column <=lastColumn; column++){
+                FileFolderButton fileFolderButton =fileFolderGrid.getButton(row, column);
+                if(fileFolderButton ==null){
+                    continue;
+                }
+
+                boolean inLasso =false;
+                if(hasRange && row >=range[0] && row <=range[2]
+                        && column >=range[1] && column <=range[3]){
+                    fileFolderButton.getHitRect(hitRect);
+                    inLasso =Rect.intersects(hitRect, lassoRect);
+                }
+
+                if(inLasso){
+                    selection.add(fileFolderButton);
+                } else{
+                    selection.remove(fileFolderButton);
+                }
+            }
+        }
+
+        System.arraycopy(range, 0, lastRange, 0, range.length);
+        hasLastRange =hasRange;
+    }
+}
@@ -21,8 +21,14 @@ import android.content.Context;
 import android.graphics.Color;
 import android.media.AudioManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.support.design.widget.FloatingActionButton;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.text.PrecomputedTextCompat;
+import android.support.v4.widget.NestedScrollView;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.ContextThemeWrapper;
 import android.view.SoundEffectConstants;
@@ -32,21 +38,23 @@ import android.view.MenuItem;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 import android.widget.PopupMenu;
-import android.widget.RelativeLayout;
 import android.widget.Toast;
 
 import com.licketycut.draganddropexample.DragAndDrop.DragAndDropParams;
+import com.licketycut.draganddropexample.DragAndDrop.DragAndDropSelection;
 import com.licketycut.draganddropexample.DragAndDrop.DragAndDropTouchListener;
 import com.licketycut.draganddropexample.ExpandingFab.ExpandingFab;
 
-import org.apache.commons.io.comparator.CompositeFileComparator;
-import org.apache.commons.io.comparator.DirectoryFileComparator;
-import org.apache.commons.io.comparator.LastModifiedFileComparator;
-import org.apache.commons.io.comparator.NameFileComparator;
-
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -58,31 +66,120 @@ import java.util.Arrays;
 public class MainActivity extends AppCompatActivity {
 
     private final static String TAG="DragAndDropExample";
+    // File beside the root folder which indexes the tree under it.
+    private final static String INDEX_NAME="DragAndDropExample.idx";
 
     // This is just a demonstration of drag and drop, not a full fledged file manager.
     private final static int NESTED_LIMIT =16;
 
-    enum SortOrder{ NAME, MODIFIED}
+    // Scroll through folders of any size, only creating FileFolderButtons for the cells in view.
+    // Without it the grid is fixed to the screen and folders hold at most NESTED_LIMIT files.
+    private final static boolean VIRTUAL_GRID =true;
+
+    // Animate FileFolderButtons to their new cells when the current folder's listing changes.
+    private final static boolean ANIMATE_MOVES =true;
+
+    // Draw the whole folder in one FileFolderCanvasView rather than a FileFolderButton per file,
+    // which keeps big folders light but leaves out selection and spring loaded folders.
+    private final static boolean CANVAS_GRID =false;
+
+    // Alpha of FileFolderButtons which have been selected to move together.
+    private final static float SELECTED_ALPHA =0.5f;
+
+    // Files created at once by a long press of the new file Fab, to load test big folders.
+    private final static int BULK_FILE_COUNT =1000;
+
+    // Time a dragged file must hover over a folder before the folder springs open,
+    // and the time to wait again if the folder hasn't been listed by then.
+    private final static int SPRING_LOAD_DWELL =800;
+    private final static int SPRING_LOAD_RETRY =50;
+
+    enum SortOrder{ NAME, MODIFIED, SIZE, TYPE}
     private SortOrder sortOrder =SortOrder.MODIFIED;
 
-    private RelativeLayout boundaryView;
+    private FileFolderLayout boundaryView;
+    private NestedScrollView scrollView;
     private Toolbar toolbar;
     private DragAndDropTouchListener dragAndDropTouchListener;
+    private final DragAndDropSelection selection = new DragAndDropSelection();
 
-    // The following variables are static so they persist through configuration changes.
-    private static FileFolderGrid fileFolderGrid;
+    // Spring loaded folders: while a file hovers over a folder its contents are listed
+    // in the background, so the folder can be opened instantly when the dwell time expires.
+    private final Handler springLoadHandler = new Handler();
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+    private File springLoadFolder =null;
+    private Future<FileSortKeys> springLoadListing =null;
+    private FileFolderButton springLoadButton =null;
+    private FileFolderButton springLoadedButton =null;
+    private final Runnable springLoadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            openSpringLoadedFolder();
+        }
+    };
+
+    // Text metrics of the labels of FileFolderButtons, so they can be measured ahead.
+    private PrecomputedTextCompat.Params labelParams;
+
+    // Runs file operations in the background, in order within each folder.
+    // Kept across configuration changes, so operations under way aren't lost.
+    private FileOperationEngine<MainActivity> fileOperations;
+    // Listings of folders visited, so they aren't read from disk again.
+    private DirectoryCache directoryCache;
+    // Listing of a folder on its way, which is dropped if another listing is started.
+    private FileOperationEngine<MainActivity>.Task<FileSortKeys> listingTask =null;
+    // Sort keys of the current folder, so it can be sorted again without reading them.
+    private FileSortKeys currentSortKeys =null;
+
+    private FileFolderGrid fileFolderGrid;
+    // Draws the grid instead of FileFolderButtons, if CANVAS_GRID.
+    private FileFolderCanvasView canvasView;
 
-    private static File rootFolder;
-    private static File currentFolder;
+    private File rootFolder;
+    private File currentFolder;
+
+    // Index of the tree, which numbers new files and folders and keeps the numbers between runs.
+    private MetadataIndex metadataIndex;
+
+    /**
+     * State carried across configuration changes, which holds no views,
+     * so the new grid can be filled from the same files without touching the disk.
+     */
+    private static final class RetainedState {
+        private File rootFolder;
+        private File currentFolder;
+        private MetadataIndex metadataIndex;
+        private FileOperationEngine<MainActivity> fileOperations;
+        private DirectoryCache directoryCache;
+        private FileOperationEngine<MainActivity>.Task<FileSortKeys> listingTask;
+        private SortOrder sortOrder;
+        // Files of the grid in cell order, and the first cell in view if the grid scrolls.
+        private ArrayList<FileEntry> entries;
+        private int firstVisibleCell;
+    }
 
-    private static int nextFolderNum =1;
-    private static int nextFileNum =1;
+    // State from the previous configuration, null on a fresh run.
+    private RetainedState retainedState;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        retainedState =(RetainedState) getLastCustomNonConfigurationInstance();
+        if(retainedState !=null){
+            rootFolder =retainedState.rootFolder;
+            currentFolder =retainedState.currentFolder;
+            metadataIndex =retainedState.metadataIndex;
+            fileOperations =retainedState.fileOperations;
+            directoryCache =retainedState.directoryCache;
+            listingTask =retainedState.listingTask;
+            sortOrder =retainedState.sortOrder;
+        } else{
+            fileOperations = new FileOperationEngine<>();
+            directoryCache = new DirectoryCache();
+        }
+
         // Setup the action bar which includes the options menu.
         toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -96,14 +193,26 @@ public class MainActivity extends AppCompatActivity {
         });
 
         boundaryView =findViewById(R.id.file_folder_layout);
+        scrollView =findViewById(R.id.file_folder_scroll);
+        labelParams =FileFolderButton.getLabelParams(getBaseContext());
 
         // Create a custom touch listener used for FileFolderButtons.
         dragAndDropTouchListener = new DragAndDropTouchListener(getBaseContext(),
                 // Set boundaryView as the container and parent
                 // and only allow folders to be considered for overlap.
-                new DragAndDropParams(boundaryView, boundaryView, R.string.folder_tag)) {
+                new DragAndDropParams(boundaryView, boundaryView, R.string.folder_tag)
+                        // Scroll to folders out of view while dragging near the edges.
+                        .setScrollView(scrollView),
+                // Process drags once per frame however fast the touch panel reports.
+                DragAndDropTouchListener.FRAME_ALIGNED) {
             @Override
             public boolean onDrop(View view, boolean wasOverlapping, View overlappingView) {
+                cancelSpringLoad();
+                if (springLoadedButton != null && springLoadedButton == view) {
+                    // The file has been carried into a spring loaded folder.
+                    return dropSpringLoaded(wasOverlapping, overlappingView);
+                }
+
                 if (wasOverlapping) {
                     // Find the FileFolderButton which was dropped by view:id.
                     FileFolderButton fileFolderButton = fileFolderGrid.findById(view.getId());
@@ -113,16 +222,10 @@ public class MainActivity extends AppCompatActivity {
                             fileFolderGrid.findById(overlappingView.getId());
                     File toFolder = fileFolderButtonOverlapping.getFile();
 
-                    File[] files = toFolder.listFiles();
-                    if (files.length > NESTED_LIMIT) {
-                        // If the folder is full, alert the user.
-                        reachedNestedLimit();
-                        return false;
-                    } else {
-                        // Move the file into the folder which it was dropped on and update.
-                        if (moveFile(fileFolderButton, toFolder)) {
-                            updateCurrentFolder(currentFolder);
-                        }
+                    // Move the file into the folder which it was dropped on and update.
+                    // If the folder turns out to be full, the file comes back.
+                    if (moveFile(fileFolderButton, toFolder)) {
+                        updateCurrentFolder(currentFolder);
                     }
                     // We've handled the event and the listener should stop processing the view.
                     return true;
@@ -130,19 +233,85 @@ public class MainActivity extends AppCompatActivity {
                 return false;
             }
 
+            @Override
+            protected boolean onDrop(View view, List<View> views,
+                                     boolean wasOverlapping, View overlappingView) {
+                cancelSpringLoad();
+                if (wasOverlapping) {
+                    // We should only be receiving folders so find which was dropped on.
+                    FileFolderButton fileFolderButtonOverlapping =
+                            fileFolderGrid.findById(overlappingView.getId());
+                    File toFolder = fileFolderButtonOverlapping.getFile();
+
+                    // Find the FileFolderButtons of the group by view:id.
+                    ArrayList<FileFolderButton> fileFolderButtons = new ArrayList<>();
+                    for (View groupView : views) {
+                        fileFolderButtons.add(fileFolderGrid.findById(groupView.getId()));
+                    }
+
+                    // Move every file of the group into the folder and update once.
+                    // If the folder can't hold the whole group, none of it moves.
+                    if (moveFiles(fileFolderButtons, toFolder)) {
+                        updateCurrentFolder(currentFolder);
+                    }
+                    // We've handled the event and the listener should stop processing the view.
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            protected boolean onOverlap(View view, View overlappingView) {
+                if (selection.size() > 1 && selection.contains(view)) {
+                    // Only single files are carried into spring loaded folders.
+                    return false;
+                }
+                FileFolderButton fileFolderButtonOverlapping =
+                        fileFolderGrid.findById(overlappingView.getId());
+                if (fileFolderButtonOverlapping != null
+                        && !fileFolderButtonOverlapping.getFile().equals(springLoadFolder)) {
+                    // Start listing the folder now and open it if the file is still
+                    // hovering over it when the dwell time expires.
+                    startSpringLoad(view, fileFolderButtonOverlapping.getFile());
+                }
+                return false;
+            }
+
+            @Override
+            protected boolean onStopOverlap(View view, View overlappingView) {
+                FileFolderButton fileFolderButtonOverlapping =
+                        fileFolderGrid.findById(overlappingView.getId());
+                if (fileFolderButtonOverlapping == null
+                        || fileFolderButtonOverlapping.getFile().equals(springLoadFolder)) {
+                    // The file has left the folder before it opened.
+                    cancelSpringLoad();
+                }
+                return false;
+            }
+
+            @Override
+            protected boolean onCancel(View view) {
+                cancelSpringLoad();
+                if (springLoadedButton != null && springLoadedButton == view) {
+                    // The file was carried into a spring loaded folder but isn't dropped,
+                    // so take its button away and show the folder as it is.
+                    springLoadedButton = null;
+                    boundaryView.removeView(view);
+                    updateCurrentFolder(currentFolder);
+                }
+                return false;
+            }
+
             @Override
             protected boolean onClick(View view) {
                 // Find the FileFolderButton which was clicked by view:id.
                 FileFolderButton fileFolderButton = fileFolderGrid.findById(view.getId());
+                if (fileFolderButton == null) {
+                    // The button has already left the grid.
+                    return false;
+                }
                 if (fileFolderButton.isFolder()) {
-                    // Since we are handling clicks with a custom callback,
-                    // we have to issue the click sound manually.
-                    AudioManager audioManager =
-                            (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-                    if (audioManager != null) {
-                        // Click only sounds if user has touch sounds enabled.
-                        audioManager.playSoundEffect(SoundEffectConstants.CLICK);
-                    }
+                    playClickSound();
 
                     // If it was a folder, open it.
                     updateCurrentFolder(fileFolderButton.getFile());
@@ -155,88 +324,76 @@ public class MainActivity extends AppCompatActivity {
             @Override
             protected boolean onLongPress(View view) {
                 // Find the FileFolderButton which was long pressed by view:id.
-                final FileFolderButton fileFolderButton = fileFolderGrid.findById(view.getId());
-
-                // Create a PopupMenu anchored to the FileFolderButton.
-                Context wrapper = new ContextThemeWrapper(getBaseContext(), R.style.PopUpMenu);
-                final PopupMenu popupMenu = new android.widget.PopupMenu(wrapper, view);
-                popupMenu.getMenuInflater().inflate(R.menu.popup_menu, popupMenu.getMenu());
-
-                popupMenu.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
-                    public boolean onMenuItemClick(MenuItem item) {
-                        switch (item.getItemId()) {
-                            case R.id.menu_item_move_file_root:
-                                if (moveFile(fileFolderButton, rootFolder)) {
-                                    updateCurrentFolder(currentFolder);
-                                }
-                                break;
-                            case R.id.menu_item_move_file_up:
-                                if (moveFile(fileFolderButton, currentFolder.getParentFile())) {
-                                    updateCurrentFolder(currentFolder);
-                                }
-                                break;
-                            case R.id.menu_item_delete_file:
-                                File file = fileFolderButton.getFile();
-                                if (file.delete()) {
-                                    updateCurrentFolder(currentFolder);
-                                }
-                                break;
-                        }
-                        popupMenu.dismiss();
-                        return true;
-                    }
-                });
-
-                if (currentFolder.getPath().equals(rootFolder.getPath())) {
-                    // If user is in the root folder, remove unneeded options from the popup menu.
-                    Menu m = popupMenu.getMenu();
-                    m.removeItem(R.id.menu_item_move_file_up);
-                    m.removeItem(R.id.menu_item_move_file_root);
+                FileFolderButton fileFolderButton = fileFolderGrid.findById(view.getId());
+                if (fileFolderButton == null) {
+                    return false;
                 }
-
-                popupMenu.show();
+                showFileMenu(view, fileFolderButton.getFile(), fileFolderButton);
                 // We've handled the event and the listener should stop processing the view.
                 return true;
             }
         };
 
-        // Add a listener to be called when boundaryView has been laid out.
-        ViewTreeObserver observer = boundaryView.getViewTreeObserver();
+        // Selected FileFolderButtons are dragged and dropped together.
+        dragAndDropTouchListener.setSelection(selection);
+        selection.setOnSelectionChangedListener(
+                new DragAndDropSelection.OnSelectionChangedListener() {
+            @Override
+            public void onSelectionChanged(View view, boolean selected) {
+                view.setAlpha(selected ? SELECTED_ALPHA : 1.0f);
+            }
+        });
+
+        // Dragging across empty space selects every FileFolderButton under the rubber band.
+        // When the grid scrolls, the rubber band starts once the touch is held still.
+        boundaryView.setOnTouchListener(new LassoSelectListener(selection,
+                ContextCompat.getColor(this, R.color.colorAccent), VIRTUAL_GRID) {
+            @Override
+            FileFolderGrid getFileFolderGrid() {
+                return fileFolderGrid;
+            }
+        });
+
+        // Bind the FileFolderButtons of cells coming into view as the grid scrolls.
+        scrollView.setOnScrollChangeListener(new NestedScrollView.OnScrollChangeListener() {
+            @Override
+            public void onScrollChange(NestedScrollView v, int scrollX, int scrollY,
+                                       int oldScrollX, int oldScrollY) {
+                if (fileFolderGrid instanceof VirtualFileFolderGrid) {
+                    ((VirtualFileFolderGrid) fileFolderGrid).setScrollY(scrollY);
+                } else if (canvasView != null) {
+                    canvasView.setViewportTop(scrollY);
+                }
+            }
+        });
+
+        // Add a listener to be called when scrollView has been laid out.
+        ViewTreeObserver observer = scrollView.getViewTreeObserver();
         observer.addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
 
             @Override
             public void onGlobalLayout() {
 
-                if (fileFolderGrid != null) {
-                    // On configuration change the fileFolderGrid is already populated.
-                    // Recreate the grid for the new configuration and repopulate it.
-                    fileFolderGrid = new FileFolderGrid(
-                            getBaseContext(), boundaryView, 48, 12, NESTED_LIMIT);
-                    updateCurrentFolder(currentFolder);
+                if (retainedState != null) {
+                    // On configuration change only the geometry of the grid has changed,
+                    // so create it for the new configuration and fill it with the same files.
+                    // Whatever was under way when the configuration changed, opening the index
+                    // or a listing included, reports to this grid once it is attached below.
+                    createGrid();
+                    restoreEntries(retainedState.entries, retainedState.firstVisibleCell);
+                    retainedState =null;
                 } else {
                     // This must be a fresh run,
                     // so we need to initialize our root folder and the grid.
                     rootFolder=new File(getFilesDir(),TAG);
-                    fileFolderGrid = new FileFolderGrid(
-                            getBaseContext(), boundaryView, 48, 12, NESTED_LIMIT);
-
-                    if (!rootFolder.exists()) {
-                        // If the root folder doesn't exist, create it, add one folder and one file.
-                        if(rootFolder.mkdirs()){
-                            createFolder(rootFolder);
-                            createFile(rootFolder);
-                        }
-                    } else{
-                        // If the root folder exists then add the FileFolderButtons to the grid
-                        // and set the folder and file counts.
-                        File[] fileList = rootFolder.listFiles();
-                        addFilesInOrder(fileList);
-                        setNextFileFolderNums(fileList);
-                    }
                     currentFolder = rootFolder;
+                    createGrid();
+                    openIndex();
                 }
+                // File operations report to this activity now that it has a grid.
+                fileOperations.attach(MainActivity.this);
                 toolbar.setTitle(currentFolder.getName());
-                boundaryView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
+                scrollView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
             }
         });
 
@@ -251,7 +408,7 @@ public class MainActivity extends AppCompatActivity {
         expandingFab.newFab(R.drawable.ic_add_folder, new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                if(fileFolderGrid.isFull()) {
+                if(isFull()) {
                     // Folder is full so alert the user.
                     reachedNestedLimit();
                 } else {
@@ -261,10 +418,11 @@ public class MainActivity extends AppCompatActivity {
         });
 
         // Add a new file Fab and attach the OnClickListener.
-        expandingFab.newFab(R.drawable.ic_add_file, new View.OnClickListener() {
+        FloatingActionButton fileFab =
+                expandingFab.newFab(R.drawable.ic_add_file, new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                if(fileFolderGrid.isFull()) {
+                if(isFull()) {
                     // Folder is full so alert the user.
                     reachedNestedLimit();
                 } else{
@@ -272,126 +430,915 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
         });
+        // A long press creates many files at once.
+        fileFab.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                if(isFull()) {
+                    reachedNestedLimit();
+                } else{
+                    createFiles(currentFolder, BULK_FILE_COUNT);
+                }
+                return true;
+            }
+        });
     }
 
-    /** Recursive method which finds all sub files and folders and updates counters. */
-    private void setNextFileFolderNums(File[] folder){
-        if(folder != null){
-            for (File file : folder) {
-                if (file.isFile()) {
-                    ++nextFileNum;
-                } else if (file.isDirectory()) {
-                    ++nextFolderNum;
-                    // This is a folder so,
-                    // call this method recursively to count sub files and folders.
-                    setNextFileFolderNums(file.listFiles());
+    /**
+     * Open the index of the tree in the background, then fill the grid from the root folder.
+     * The folder and file counts are kept in the index, so the tree isn't walked to count them,
+     * unless there is no index yet.
+     */
+    private void openIndex(){
+        fileOperations.submit(rootFolder,
+                openIndexOperation(new File(getFilesDir(), INDEX_NAME), rootFolder));
+    }
+
+    /*
+     * File operations are made by static methods like this one, so they hold no activity
+     * while they run and report to whichever activity is attached when they finish.
+     */
+
+    private static FileOperationEngine.Operation<MainActivity, MetadataIndex>
+            openIndexOperation(final File indexFile, final File folder){
+        return new FileOperationEngine.Operation<MainActivity, MetadataIndex>() {
+            private boolean folderExists;
+
+            @Override
+            MetadataIndex run() {
+                folderExists =folder.exists();
+                return MetadataIndex.open(indexFile, folder);
+            }
+
+            @Override
+            void onSuccess(MainActivity activity, MetadataIndex index) {
+                activity.metadataIndex =index;
+
+                if (!folderExists) {
+                    // If the root folder doesn't exist, create it, add one folder and one file.
+                    // The folder and file are queued behind the root folder being made.
+                    activity.makeRootFolder();
+                    activity.createFolder(folder);
+                    activity.createFile(folder);
+                } else{
+                    // If the root folder exists then list it in the background
+                    // to add the FileFolderButtons to the grid.
+                    activity.updateCurrentFolder(folder);
                 }
             }
+        };
+    }
+
+    /** Create the grid, or the canvas drawing it, to fill the visible area of the scroll view. */
+    private void createGrid(){
+        if(CANVAS_GRID){
+            canvasView =createCanvasView();
+            return;
         }
+        fileFolderGrid =createFileFolderGrid();
+    }
 
+    /** Create a grid to fill the visible area of the scroll view. */
+    private FileFolderGrid createFileFolderGrid(){
+        if(VIRTUAL_GRID){
+            return new VirtualFileFolderGrid(getBaseContext(), scrollView, boundaryView, 48, 12,
+                    dragAndDropTouchListener, selection);
+        }
+        return new FileFolderGrid(getBaseContext(), scrollView, boundaryView, 48, 12,
+                NESTED_LIMIT);
     }
 
-    /** Create a new FileFolderButton, add our custom touch listener
-     * and attach it to the FileFolderGrid. */
-    private void addFileFolderButton(File file){
-        FileFolderButton fileFolder =
-                new FileFolderButton(getBaseContext(), file, boundaryView, file.isDirectory());
-        fileFolder.setOnTouchListener(dragAndDropTouchListener);
-        fileFolderGrid.setNextOpenButton(fileFolder);
+    /** Create a canvas to draw the grid and put it in the place of boundaryView. */
+    private FileFolderCanvasView createCanvasView(){
+        final FileFolderCanvasView view = new FileFolderCanvasView(getBaseContext());
+        view.setGeometry(scrollView, 48, 12);
+        view.setCallbacks(new FileFolderCanvasView.Callbacks() {
+            @Override
+            protected boolean onDrop(int cell, boolean wasOverlapping, int overlappingCell) {
+                if (wasOverlapping) {
+                    File file = view.getEntry(cell).getFile();
+                    File toFolder = view.getEntry(overlappingCell).getFile();
+
+                    // Move the file into the folder which it was dropped on and update.
+                    if (moveFile(file, toFolder)) {
+                        updateCurrentFolder(currentFolder);
+                    }
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            protected boolean onClick(int cell) {
+                FileEntry entry = view.getEntry(cell);
+                if (entry.isFolder()) {
+                    playClickSound();
+                    updateCurrentFolder(entry.getFile());
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            protected boolean onLongPress(int cell) {
+                // Cells can't be selected, so there is no button to select.
+                showFileMenu(view, view.getEntry(cell).getFile(), null);
+                return true;
+            }
+        });
+
+        // The canvas takes the place of the layout of FileFolderButtons.
+        scrollView.removeView(boundaryView);
+        scrollView.addView(view, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        return view;
+    }
+
+    /** Is the current folder full? The canvas holds as many files as the folder does. */
+    private boolean isFull(){
+        return canvasView ==null && fileFolderGrid.isFull();
+    }
+
+    /** Number of cells in view. */
+    private int pageSize(){
+        return canvasView !=null ? canvasView.getPageSize() : fileFolderGrid.getPageSize();
+    }
+
+    /** Most files a folder may hold, without limit when the grid scrolls. */
+    private static int nestedLimit(){
+        return VIRTUAL_GRID || CANVAS_GRID ? Integer.MAX_VALUE : NESTED_LIMIT;
+    }
+
+    /** A folder can't take the files being moved into it. */
+    private static final class FolderFullException extends IOException {
+        FolderFullException(File folder){
+            super("Folder is full : "+folder.getPath());
+        }
     }
 
-    /** Clear the current FileFolderButtons, change currentFolder and update grid. */
+    /**
+     * Check that a folder has room for files being moved into it, called by the move itself
+     * in the background, so a drop isn't held up counting the folder. Without a limit
+     * the folder isn't counted at all.
+     * @param directoryCache    Listings to count the folder from.
+     * @param toFolder          Folder into which the files are moved.
+     * @param adding            Number of files being moved into it.
+     * @throws FolderFullException  If the folder is full.
+     */
+    private static void checkRoom(DirectoryCache directoryCache, File toFolder, int adding)
+            throws FolderFullException{
+        if(nestedLimit() !=Integer.MAX_VALUE
+                && directoryCache.count(toFolder) + adding > nestedLimit()){
+            throw new FolderFullException(toFolder);
+        }
+    }
+
+    /**
+     * Add a file to the grid before it has been created,
+     * the listing made if creating it fails takes it away again.
+     * @param file      The file being created.
+     * @param isFolder  Is it a folder? It can't be asked until it exists.
+     */
+    private void addFileFolderButton(File file, boolean isFolder){
+        addEntries(Collections.singletonList(new FileEntry(file, isFolder)));
+    }
+
+    /**
+     * Fill a grid created for a new configuration with the files of the previous grid.
+     * @param entries           Files of the previous grid in cell order.
+     * @param firstVisibleCell  First cell which was in view, if the grid scrolls.
+     */
+    private void restoreEntries(ArrayList<FileEntry> entries, final int firstVisibleCell){
+        if(canvasView !=null){
+            canvasView.setEntries(entries);
+            scrollView.post(new Runnable() {
+                @Override
+                public void run() {
+                    scrollView.scrollTo(0, canvasView.getScrollYOfCell(firstVisibleCell));
+                }
+            });
+            return;
+        }
+        if(fileFolderGrid instanceof VirtualFileFolderGrid){
+            // The virtual grid adopts the files as they are and binds only the cells in view.
+            final VirtualFileFolderGrid virtualGrid =(VirtualFileFolderGrid) fileFolderGrid;
+            virtualGrid.setEntries(entries);
+
+            // Bring the same files back into view once the grid has grown to hold them.
+            scrollView.post(new Runnable() {
+                @Override
+                public void run() {
+                    scrollView.scrollTo(0, virtualGrid.getScrollYOfCell(firstVisibleCell));
+                }
+            });
+            return;
+        }
+        addEntries(entries);
+    }
+
+    /**
+     * List and sort a folder and measure its labels in the background,
+     * then clear the current FileFolderButtons, change currentFolder and update grid.
+     */
     private void updateCurrentFolder(File folder){
+        listFolder(folder, null);
+    }
+
+    /** Sort the current folder again, reading the sort keys only of files not yet sorted. */
+    private void sortCurrentFolder(){
+        listFolder(currentFolder, currentSortKeys);
+    }
+
+    /**
+     * List and sort a folder and measure its labels in the background, then update the grid.
+     * A long folder which isn't cached and isn't already in view shows its first page once
+     * the first chunk has been read, and the whole folder once it has been read and sorted.
+     * @param folder    Folder to list.
+     * @param known     Sort keys of an earlier listing of the folder, or null to read them all.
+     */
+    private void listFolder(final File folder, final FileSortKeys known){
+        cancelListing();
+        final PrecomputedTextCompat.Params params =labelParams;
+        final SortOrder order =sortOrder;
+        final int pageSize =pageSize();
+        // Null until the index has been opened, which lists the folder again once it has.
+        final MetadataIndex index =metadataIndex;
+        // A folder already in view keeps what it shows until the whole of it has been sorted,
+        // rather than cutting back to its first page.
+        final boolean showFirstPage =!folder.equals(currentFolder);
+        // Queued behind any operations on the folder, so the listing sees what they did.
+        listingTask =fileOperations.submit(folder, listOperation(directoryCache, index, folder,
+                known, showFirstPage, order, pageSize, params));
+    }
 
+    private static FileOperationEngine.Operation<MainActivity, FileSortKeys> listOperation(
+            final DirectoryCache directoryCache, final MetadataIndex index, final File folder,
+            final FileSortKeys known, final boolean showFirstPage, final SortOrder order,
+            final int pageSize, final PrecomputedTextCompat.Params params){
+        return new FileOperationEngine.Operation<MainActivity, FileSortKeys>() {
+            // Sort keys of the first chunk, which aren't read again for the whole folder.
+            private FileSortKeys firstChunk =null;
+
+            @Override
+            FileSortKeys run() {
+                DirectoryCache.ChunkListener listener =null;
+                if(showFirstPage){
+                    listener = new DirectoryCache.ChunkListener() {
+                        @Override
+                        public void onChunk(File[] chunk) {
+                            if(firstChunk ==null){
+                                // The first files of the chunk fill the page
+                                // until the rest are read.
+                                firstChunk =FileSortKeys.read(chunk, known);
+                                FileSortKeys firstPage =firstChunk.top(order, pageSize);
+                                LabelCache.precompute(firstPage.sort(order), params);
+                                firstPage.entries(order);
+                                publish(firstPage);
+                            }
+                        }
+                    };
+                }
+                File[] fileList =directoryCache.list(folder, listener);
+                if(index !=null && known ==null){
+                    // The folder is checked against the index now that it's been listed.
+                    // A sort of the folder already in view was checked when it was listed.
+                    index.verify(folder, fileList);
+                }
+                FileSortKeys keys =
+                        FileSortKeys.read(fileList, firstChunk !=null ? firstChunk : known);
+                LabelCache.precompute(keys.sort(order), params);
+                // Build the entries here, so the grid is filled without reading the files.
+                keys.entries(order);
+                return keys;
+            }
+
+            @Override
+            void onProgress(MainActivity activity, FileSortKeys firstPage) {
+                activity.updateCurrentFolder(folder, firstPage.entries(activity.sortOrder), null);
+            }
+
+            @Override
+            void onSuccess(MainActivity activity, FileSortKeys keys) {
+                activity.listingTask =null;
+                activity.currentSortKeys =keys;
+                // Already sorted in the background, unless the order has changed since.
+                activity.updateCurrentFolder(folder, keys.entries(activity.sortOrder), null);
+            }
+        };
+    }
+
+    /** Drop the listing on its way, it is of a folder which is no longer wanted. */
+    private void cancelListing(){
+        if(listingTask !=null){
+            listingTask.cancel();
+            listingTask =null;
+        }
+    }
+
+    /**
+     * Clear the current FileFolderButtons, change currentFolder
+     * and update grid with a listing which has already been sorted.
+     * @param folder    The new current folder.
+     * @param listing   Sorted listing of the folder.
+     * @param keep      Button to leave in the boundaryView, such as one being dragged.
+     */
+    private void updateCurrentFolder(File folder, ArrayList<FileEntry> listing,
+                                     FileFolderButton keep){
+        if(canvasView !=null){
+            showInCanvas(folder, listing);
+            return;
+        }
+
+        // Every button added, removed or moved below is laid out in one pass.
+        boundaryView.beginBatch();
+        if(keep ==null && folder.equals(currentFolder)){
+            // The same folder has changed, so only update the FileFolderButtons of files
+            // which have been added, removed or moved within the listing.
+            refreshCurrentFolder(listing);
+        }else{
+            replaceCurrentFolder(folder, listing, keep);
+        }
+        boundaryView.endBatch();
+    }
+
+    /**
+     * Replace the FileFolderButtons in the grid with those of a listing.
+     * @param folder    The new current folder.
+     * @param listing   Sorted listing of the folder.
+     * @param keep      Button to leave in the boundaryView, such as one being dragged.
+     */
+    private void replaceCurrentFolder(File folder, ArrayList<FileEntry> listing,
+                                      FileFolderButton keep){
+
+        if(!folder.equals(currentFolder)){
+            // A different folder starts from the top.
+            scrollView.scrollTo(0, 0);
+        }
         currentFolder =folder;
 
+        // The current FileFolderButtons are about to be replaced, so deselect them.
+        selection.clear();
+
         // Remove and retrieve a list of the current FileFolderButtons in the grid
         // and remove them from the boundaryView.
         ArrayList<FileFolderButton> fileFolderButtons =fileFolderGrid.removeFileFolderButtons();
         for(FileFolderButton button: fileFolderButtons){
+            if(button != keep) {
+                boundaryView.removeView(button);
+            }
+        }
+
+        addEntries(listing);
+
+        toolbar.setTitle(currentFolder.getName());
+    }
+
+    /**
+     * Diff a new listing of the current folder against the FileFolderButtons in the grid,
+     * keeping the buttons of files which are still listed and their selection.
+     * @param listing   Sorted listing of the current folder.
+     */
+    private void refreshCurrentFolder(ArrayList<FileEntry> listing){
+        ArrayList<FileEntry> added = new ArrayList<>();
+        ArrayList<FileFolderButton> removed =
+                fileFolderGrid.submitListing(listing, ANIMATE_MOVES, added);
+        for(FileFolderButton button: removed){
+            selection.remove(button);
             boundaryView.removeView(button);
         }
 
-        addFilesInOrder(currentFolder.listFiles());
+        // New files fill the cells left for them, in listing order.
+        addEntries(added);
+    }
+
+    /**
+     * Draw a sorted listing in the canvas, which keeps nothing per file but its FileEntry.
+     * @param folder    The new current folder.
+     * @param listing   Sorted listing of the folder, which the canvas adopts.
+     */
+    private void showInCanvas(File folder, ArrayList<FileEntry> listing){
+        if(!folder.equals(currentFolder)){
+            // A different folder starts from the top.
+            scrollView.scrollTo(0, 0);
+        }
+        currentFolder =folder;
+
+        canvasView.setEntries(listing);
 
         toolbar.setTitle(currentFolder.getName());
     }
 
-    /** Add FileFolderButtons found in fileList and sort them based on sortOrder. */
-    @SuppressWarnings("unchecked")  // We are aware that the Comparators are unchecked.
-    private void addFilesInOrder(File[] fileList){
+    /**
+     * Add FileFolderButtons for files in the order given, building them all before attaching
+     * them together so the grid is laid out once.
+     */
+    private void addEntries(List<FileEntry> entries){
+        if(canvasView !=null){
+            canvasView.addEntries(entries);
+            return;
+        }
+        if(fileFolderGrid instanceof VirtualFileFolderGrid){
+            // The virtual grid creates buttons only for the cells in view.
+            ((VirtualFileFolderGrid) fileFolderGrid).addEntries(entries);
+            return;
+        }
 
-        switch(sortOrder){
-            case MODIFIED:
-                Arrays.sort(fileList,LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
-                break;
-            case NAME:
-                // Sort alphanumerically with folders first.
-                CompositeFileComparator comparator =
-                        new CompositeFileComparator(
-                                DirectoryFileComparator.DIRECTORY_COMPARATOR,
-                                NameFileComparator.NAME_COMPARATOR);
-                Arrays.sort(fileList, comparator);
-                break;
+        // Only build as many buttons as there are cells for.
+        int count =Math.min(entries.size(), fileFolderGrid.getFreeCount());
+        ArrayList<FileFolderButton> fileFolderButtons = new ArrayList<>(count);
+        for(int index =0; index <count; index++){
+            FileEntry entry =entries.get(index);
+            FileFolderButton fileFolder =
+                    new FileFolderButton(getBaseContext(), entry.getFile(), entry.isFolder());
+            fileFolder.setOnTouchListener(dragAndDropTouchListener);
+            fileFolderButtons.add(fileFolder);
+        }
+        fileFolderGrid.addButtons(fileFolderButtons);
+    }
+
+    /**
+     * Start listing a folder in the background and schedule it to spring open.
+     * @param view      The view being dragged.
+     * @param folder    The folder it is hovering over.
+     */
+    private void startSpringLoad(View view, final File folder){
+        cancelSpringLoad();
+
+        springLoadFolder =folder;
+        springLoadButton =fileFolderGrid.findById(view.getId());
+        if(springLoadButton ==null && view == springLoadedButton){
+            // The file has already been carried into a spring loaded folder.
+            springLoadButton =springLoadedButton;
+        }
+        final PrecomputedTextCompat.Params params =labelParams;
+        final SortOrder order =sortOrder;
+        springLoadListing =prefetchExecutor.submit(new Callable<FileSortKeys>() {
+            @Override
+            public FileSortKeys call() {
+                FileSortKeys keys =FileSortKeys.read(directoryCache.list(folder), null);
+                LabelCache.precompute(keys.sort(order), params);
+                keys.entries(order);
+                return keys;
+            }
+        });
+        springLoadHandler.postDelayed(springLoadRunnable, SPRING_LOAD_DWELL);
+    }
+
+    /** Forget the folder which was going to spring open. */
+    private void cancelSpringLoad(){
+        springLoadHandler.removeCallbacks(springLoadRunnable);
+        if(springLoadListing !=null){
+            springLoadListing.cancel(true);
+            springLoadListing =null;
+        }
+        springLoadFolder =null;
+        springLoadButton =null;
+    }
+
+    /** The dwell time has expired, so open the folder and keep dragging the file into it. */
+    private void openSpringLoadedFolder(){
+        if(springLoadButton ==null || springLoadListing ==null){
+            return;
         }
-        for(File file : fileList){
-            addFileFolderButton(file);
+
+        if(!springLoadListing.isDone()){
+            // The listing normally finishes long before the dwell time expires,
+            // otherwise keep hovering until it has rather than wait for it here.
+            springLoadHandler.postDelayed(springLoadRunnable, SPRING_LOAD_RETRY);
+            return;
+        }
+
+        File folder =springLoadFolder;
+        FileSortKeys keys;
+        try {
+            // Already done, so this doesn't block.
+            keys =springLoadListing.get();
+        } catch (InterruptedException | ExecutionException e){
+            // The folder stays shut, the file can still be dropped on it.
+            Log.w(TAG, "Could not prefetch folder : "+folder.getPath());
+            cancelSpringLoad();
+            return;
         }
+
+        springLoadedButton =springLoadButton;
+        springLoadListing =null;
+        // Any listing still on its way is of the folder we're leaving.
+        cancelListing();
+        springLoadFolder =null;
+        springLoadButton =null;
+
+        // Swap the grid while leaving the dragged button where the user is holding it.
+        currentSortKeys =keys;
+        updateCurrentFolder(folder, keys.entries(sortOrder), springLoadedButton);
+    }
+
+    /**
+     * Drop a file which was carried into a spring loaded folder.
+     * @param wasOverlapping    Was it dropped on a folder?
+     * @param overlappingView   The folder it was dropped on.
+     * @return                  True, the drop is always handled.
+     */
+    private boolean dropSpringLoaded(boolean wasOverlapping, View overlappingView){
+        FileFolderButton fileFolderButton =springLoadedButton;
+        springLoadedButton =null;
+
+        // Drop into the folder it is over, otherwise into the folder which sprang open.
+        File toFolder =currentFolder;
+        if(wasOverlapping){
+            toFolder =fileFolderGrid.findById(overlappingView.getId()).getFile();
+        }
+
+        if(!toFolder.equals(fileFolderButton.getFile().getParentFile())){
+            moveFile(fileFolderButton, toFolder);
+        }
+
+        // The button is not part of the grid, so remove it whether or not it moved.
+        boundaryView.removeView(fileFolderButton);
+        updateCurrentFolder(currentFolder);
+        return true;
     }
 
     /** Create new file and button.
-     *  Add it to the grid and update the file number count.
+     *  Add it to the grid straight away and take its number from the index,
+     *  the file itself is created in the background.
      */
     private void createFile(File file){
-        File newFile =new File(file, "File\n"+ nextFileNum);
-        try {
-            if(newFile.createNewFile()) {
-                addFileFolderButton(newFile);
-                ++nextFileNum;
+        if(metadataIndex ==null){
+            // New files are numbered from the index, which is still being opened.
+            return;
+        }
+        final File newFile =
+                new File(file, MetadataIndex.FILE_PREFIX+ metadataIndex.takeFileNums(1));
+        addFileFolderButton(newFile, false);
+        fileOperations.submit(file, createFileOperation(directoryCache, metadataIndex, newFile));
+    }
+
+    private static FileOperationEngine.Operation<MainActivity, Void> createFileOperation(
+            final DirectoryCache directoryCache, final MetadataIndex metadataIndex,
+            final File newFile){
+        return new FileOperationEngine.Operation<MainActivity, Void>() {
+            @Override
+            Void run() throws IOException {
+                if(!newFile.createNewFile()) {
+                    throw new IOException("File already exists : "+newFile.getPath());
+                }
+                directoryCache.added(newFile);
+                metadataIndex.added(newFile);
+                return null;
+            }
+
+            @Override
+            void onFailure(MainActivity activity, Exception e) {
+                activity.undoFileOperation("Could not create file", e);
             }
-        }catch (java.io.IOException e){
-            Log.w(TAG, "Could not create file :"+e.getMessage());
+        };
+    }
+
+    /**
+     * Create many files in the background, then add their buttons in one batch.
+     * @param folder    Folder in which to create the files.
+     * @param count     Number of files to create, fewer if the grid can't hold them.
+     */
+    private void createFiles(final File folder, int count){
+        if(metadataIndex ==null){
+            // New files are numbered from the index, which is still being opened.
+            return;
         }
+        if(canvasView ==null){
+            count =Math.min(count, fileFolderGrid.getFreeCount());
+        }
+
+        // Number the files now, so files created meanwhile don't take the same names.
+        final int firstNum =metadataIndex.takeFileNums(count);
+        final int lastNum =firstNum + count;
 
+        fileOperations.submit(folder,
+                createFilesOperation(directoryCache, metadataIndex, folder, firstNum, lastNum));
+    }
+
+    private static FileOperationEngine.Operation<MainActivity, ArrayList<FileEntry>>
+            createFilesOperation(final DirectoryCache directoryCache,
+                                 final MetadataIndex metadataIndex, final File folder,
+                                 final int firstNum, final int lastNum){
+        return new FileOperationEngine.Operation<MainActivity, ArrayList<FileEntry>>() {
+            @Override
+            ArrayList<FileEntry> run() {
+                ArrayList<File> created = new ArrayList<>(lastNum - firstNum);
+                ArrayList<FileEntry> entries = new ArrayList<>(lastNum - firstNum);
+                for(int num =firstNum; num <lastNum; num++){
+                    File newFile =new File(folder, MetadataIndex.FILE_PREFIX+ num);
+                    try {
+                        if(newFile.createNewFile()) {
+                            directoryCache.added(newFile);
+                            created.add(newFile);
+                            entries.add(new FileEntry(newFile, false));
+                        }
+                    }catch (IOException e){
+                        Log.w(TAG, "Could not create file :"+e.getMessage());
+                    }
+                }
+                // The whole batch is one change to the index.
+                metadataIndex.addedAll(created);
+                return entries;
+            }
+
+            @Override
+            void onSuccess(MainActivity activity, ArrayList<FileEntry> created) {
+                if(folder.equals(activity.currentFolder)){
+                    // Files created in another folder are found when it's listed.
+                    activity.addEntries(created);
+                }
+            }
+        };
     }
 
     /** Create new folder and button.
-     *  Add it to the grid and update the file number count.
+     *  Add it to the grid straight away and take its number from the index,
+     *  the folder itself is created in the background.
      */
     private void createFolder(File folder){
-        File newFolder =new File(folder, "Folder\n"+ nextFolderNum);
-        if(newFolder.mkdir()) {
-            addFileFolderButton(newFolder);
-            ++nextFolderNum;
+        if(metadataIndex ==null){
+            // New folders are numbered from the index, which is still being opened.
+            return;
         }
+        final File newFolder =
+                new File(folder, MetadataIndex.FOLDER_PREFIX+ metadataIndex.takeFolderNum());
+        addFileFolderButton(newFolder, true);
+        fileOperations.submit(folder,
+                createFolderOperation(directoryCache, metadataIndex, newFolder));
+    }
+
+    private static FileOperationEngine.Operation<MainActivity, Void> createFolderOperation(
+            final DirectoryCache directoryCache, final MetadataIndex metadataIndex,
+            final File newFolder){
+        return new FileOperationEngine.Operation<MainActivity, Void>() {
+            @Override
+            Void run() throws IOException {
+                if(!newFolder.mkdir()) {
+                    throw new IOException("Could not make folder : "+newFolder.getPath());
+                }
+                directoryCache.added(newFolder);
+                metadataIndex.added(newFolder);
+                return null;
+            }
+
+            @Override
+            void onFailure(MainActivity activity, Exception e) {
+                activity.undoFileOperation("Could not create folder", e);
+            }
+        };
+    }
+
+    /** Make the root folder in the background, ahead of anything created in it. */
+    private void makeRootFolder(){
+        fileOperations.submit(rootFolder, makeFolderOperation(rootFolder));
+    }
+
+    private static FileOperationEngine.Operation<MainActivity, Void> makeFolderOperation(
+            final File folder){
+        return new FileOperationEngine.Operation<MainActivity, Void>() {
+            @Override
+            Void run() throws IOException {
+                if(!folder.mkdirs()) {
+                    throw new IOException("Could not make folder : "+folder.getPath());
+                }
+                return null;
+            }
+
+            @Override
+            void onFailure(MainActivity activity, Exception e) {
+                Log.w(TAG, e.getMessage());
+            }
+        };
     }
 
     /**
-     * Move file referenced by button into a different folder.
+     * Move file referenced by button into a different folder,
+     * removing the button from the current grid straight away.
      *
      * @param fileFolderButton  Button containing file to move.
      * @param toFolder          Folder into which to move.
-     * @return                  Success?
+     * @return                  Has the move been queued?
      */
     private boolean moveFile(FileFolderButton fileFolderButton, File toFolder){
+        if(moveFile(fileFolderButton.getFile(), toFolder)) {
+            fileFolderGrid.removeButton(fileFolderButton);
+            boundaryView.removeView(fileFolderButton);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Move a file into a different folder in the background.
+     *
+     * @param file      File to move.
+     * @param toFolder  Folder into which to move.
+     * @return          Has the move been queued?
+     */
+    private boolean moveFile(final File file, final File toFolder){
         // Generate the new filename with updated path.
-        File file =fileFolderButton.getFile();
-        File newFile =new File(toFolder.getPath()+"/"+file.getName());
+        final File newFile =new File(toFolder.getPath()+"/"+file.getName());
+        if(newFile.equals(file)){
+            // The file is already in the folder.
+            return false;
+        }
+
+        // Queued on the folder the file leaves,
+        // so a listing of that folder submitted afterwards finds it gone.
+        fileOperations.submit(file.getParentFile(),
+                moveFileOperation(directoryCache, metadataIndex, file, newFile, toFolder));
+        return true;
+    }
 
-        // Rename file with the new path and remove the button from the current grid.
-        if(file.renameTo(newFile)) {
+    private static FileOperationEngine.Operation<MainActivity, Void> moveFileOperation(
+            final DirectoryCache directoryCache, final MetadataIndex metadataIndex,
+            final File file, final File newFile, final File toFolder){
+        return new FileOperationEngine.Operation<MainActivity, Void>() {
+            @Override
+            Void run() throws IOException {
+                checkRoom(directoryCache, toFolder, 1);
+                // Rename file with the new path.
+                if(!file.renameTo(newFile)) {
+                    throw new IOException("Could not move file :"+newFile.getName()
+                            +" to : "+newFile.getPath());
+                }
+                directoryCache.removed(file);
+                directoryCache.added(newFile);
+                metadataIndex.moved(file, newFile);
+                return null;
+            }
+
+            @Override
+            void onSuccess(MainActivity activity, Void result) {
+                if(toFolder.equals(activity.currentFolder)){
+                    // The file has been moved into the folder in view, so show it.
+                    activity.updateCurrentFolder(toFolder);
+                }
+            }
+
+            @Override
+            void onFailure(MainActivity activity, Exception e) {
+                activity.undoFileOperation("Could not move file", e);
+            }
+        };
+    }
+
+    /**
+     * Move the files referenced by a group of buttons into a different folder,
+     * removing the buttons from the current grid straight away.
+     * The files are moved by one operation, which reports any that couldn't be moved together.
+     *
+     * @param fileFolderButtons Buttons containing files to move.
+     * @param toFolder          Folder into which to move.
+     * @return                  Has any move been queued?
+     */
+    private boolean moveFiles(ArrayList<FileFolderButton> fileFolderButtons, final File toFolder){
+        final ArrayList<File> files = new ArrayList<>(fileFolderButtons.size());
+        for(FileFolderButton fileFolderButton : fileFolderButtons){
+            File file =fileFolderButton.getFile();
+            if(file.equals(toFolder) || toFolder.equals(file.getParentFile())){
+                // A folder can't be moved into itself, and a file already there stays.
+                continue;
+            }
+            files.add(file);
             fileFolderGrid.removeButton(fileFolderButton);
             boundaryView.removeView(fileFolderButton);
-            return true;
-        }else{
-            Log.w(TAG, "Could not move file :"+newFile.getName()+" to : "+newFile.getPath());
+        }
+        if(files.isEmpty()){
+            return false;
         }
 
-        return false;
+        // Queued on the folder the group leaves,
+        // so a listing of that folder submitted afterwards finds them gone.
+        fileOperations.submit(files.get(0).getParentFile(),
+                moveFilesOperation(directoryCache, metadataIndex, files, toFolder));
+        return true;
+    }
+
+    private static FileOperationEngine.Operation<MainActivity, Void> moveFilesOperation(
+            final DirectoryCache directoryCache, final MetadataIndex metadataIndex,
+            final ArrayList<File> files, final File toFolder){
+        return new FileOperationEngine.Operation<MainActivity, Void>() {
+            @Override
+            Void run() throws IOException {
+                checkRoom(directoryCache, toFolder, files.size());
+                ArrayList<File> from = new ArrayList<>(files.size());
+                ArrayList<File> to = new ArrayList<>(files.size());
+                ArrayList<String> failed = new ArrayList<>();
+                for(File file : files){
+                    // Rename file with the new path.
+                    File newFile =new File(toFolder.getPath()+"/"+file.getName());
+                    if(file.renameTo(newFile)){
+                        directoryCache.removed(file);
+                        directoryCache.added(newFile);
+                        from.add(file);
+                        to.add(newFile);
+                    } else{
+                        failed.add(file.getName());
+                    }
+                }
+                // The whole group is one change to the index.
+                metadataIndex.movedAll(from, to);
+                if(!failed.isEmpty()){
+                    throw new IOException("Could not move files :"+TextUtils.join(", ", failed)
+                            +" to : "+toFolder.getPath());
+                }
+                return null;
+            }
+
+            @Override
+            void onSuccess(MainActivity activity, Void result) {
+                if(toFolder.equals(activity.currentFolder)){
+                    // The files have been moved into the folder in view, so show them.
+                    activity.updateCurrentFolder(toFolder);
+                }
+            }
+
+            @Override
+            void onFailure(MainActivity activity, Exception e) {
+                // Those which did move are left where they are, the listing shows the rest.
+                activity.undoFileOperation("Could not move files", e);
+            }
+        };
+    }
+
+    /**
+     * Delete a file in the background, removing its button from the grid straight away.
+     * @param file              File to delete.
+     * @param fileFolderButton  Button of the file, or null if the grid has no buttons.
+     */
+    private void deleteFile(final File file, FileFolderButton fileFolderButton){
+        if(fileFolderButton !=null){
+            selection.remove(fileFolderButton);
+            fileFolderGrid.removeButton(fileFolderButton);
+            boundaryView.removeView(fileFolderButton);
+        }
+        fileOperations.submit(file.getParentFile(),
+                deleteFileOperation(directoryCache, metadataIndex, file));
     }
 
-    /** Recursive method which finds all sub files and folders and deletes them. */
-    private void deleteFilesFolders(File[] folder){
+    private static FileOperationEngine.Operation<MainActivity, Void> deleteFileOperation(
+            final DirectoryCache directoryCache, final MetadataIndex metadataIndex,
+            final File file){
+        return new FileOperationEngine.Operation<MainActivity, Void>() {
+            @Override
+            Void run() throws IOException {
+                if(!file.delete()) {
+                    throw new IOException("Could not delete : "+file.getPath());
+                }
+                directoryCache.removed(file);
+                metadataIndex.removed(file);
+                return null;
+            }
+
+            @Override
+            void onFailure(MainActivity activity, Exception e) {
+                activity.undoFileOperation("Could not delete file", e);
+            }
+        };
+    }
+
+    /** Delete everything in the background and start again with one folder and one file. */
+    private void resetRootFolder(){
+        if(metadataIndex ==null){
+            // The index is still being opened, and would be left behind the reset.
+            return;
+        }
+        metadataIndex.resetCounters();
+
+        // Empty the grid straight away, the new folder and file are added as they're queued.
+        cancelListing();
+        currentSortKeys =null;
+        updateCurrentFolder(rootFolder, new ArrayList<FileEntry>(), null);
+        fileOperations.submit(rootFolder,
+                deleteAllOperation(directoryCache, metadataIndex, rootFolder));
+        createFolder(rootFolder);
+        createFile(rootFolder);
+        // Show whatever could not be deleted as well.
+        updateCurrentFolder(rootFolder);
+    }
+
+    private static FileOperationEngine.Operation<MainActivity, Void> deleteAllOperation(
+            final DirectoryCache directoryCache, final MetadataIndex metadataIndex,
+            final File rootFolder){
+        return new FileOperationEngine.Operation<MainActivity, Void>() {
+            @Override
+            Void run() {
+                deleteFilesFolders(rootFolder.listFiles());
+                // Whatever is left is listed from disk again.
+                directoryCache.clear();
+                metadataIndex.rebuild();
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Recursive method which finds all sub files and folders and deletes them.
+     * Runs in the background, failures are only logged.
+     */
+    private static void deleteFilesFolders(File[] folder){
         if(folder != null){
             for (File file : folder) {
                 if (file.isFile()) {
@@ -412,6 +1359,88 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
+    /**
+     * A file operation failed after the grid had already been updated as if it would succeed,
+     * so alert the user and list the current folder again to put the grid right.
+     * @param message   What could not be done.
+     * @param e         Why.
+     */
+    private void undoFileOperation(String message, Exception e){
+        if(e instanceof FolderFullException){
+            // Nothing went wrong, the files just didn't fit.
+            reachedNestedLimit();
+        } else{
+            Log.w(TAG, message+" : "+e.getMessage());
+            Toast.makeText(getBaseContext(), message, Toast.LENGTH_SHORT).show();
+        }
+        updateCurrentFolder(currentFolder);
+    }
+
+    /**
+     * Show the menu of actions on a file, anchored to the view which was long pressed.
+     * @param anchor            View to anchor the menu to.
+     * @param file              The file to act on.
+     * @param fileFolderButton  Button of the file to select, or null if it can't be selected.
+     */
+    private void showFileMenu(View anchor, final File file,
+                              final FileFolderButton fileFolderButton){
+        // Create a PopupMenu anchored to the view.
+        Context wrapper = new ContextThemeWrapper(getBaseContext(), R.style.PopUpMenu);
+        final PopupMenu popupMenu = new android.widget.PopupMenu(wrapper, anchor);
+        popupMenu.getMenuInflater().inflate(R.menu.popup_menu, popupMenu.getMenu());
+
+        popupMenu.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
+            public boolean onMenuItemClick(MenuItem item) {
+                // The listing is diffed once the file has gone, which removes its button.
+                switch (item.getItemId()) {
+                    case R.id.menu_item_select_file:
+                        selection.toggle(fileFolderButton);
+                        break;
+                    case R.id.menu_item_move_file_root:
+                        if (moveFile(file, rootFolder)) {
+                            updateCurrentFolder(currentFolder);
+                        }
+                        break;
+                    case R.id.menu_item_move_file_up:
+                        if (moveFile(file, currentFolder.getParentFile())) {
+                            updateCurrentFolder(currentFolder);
+                        }
+                        break;
+                    case R.id.menu_item_delete_file:
+                        deleteFile(file, fileFolderButton);
+                        updateCurrentFolder(currentFolder);
+                        break;
+                }
+                popupMenu.dismiss();
+                return true;
+            }
+        });
+
+        Menu m = popupMenu.getMenu();
+        if (currentFolder.getPath().equals(rootFolder.getPath())) {
+            // If user is in the root folder, remove unneeded options from the popup menu.
+            m.removeItem(R.id.menu_item_move_file_up);
+            m.removeItem(R.id.menu_item_move_file_root);
+        }
+        if (fileFolderButton == null) {
+            m.removeItem(R.id.menu_item_select_file);
+        }
+
+        popupMenu.show();
+    }
+
+    /**
+     * Since we are handling clicks with a custom callback,
+     * we have to issue the click sound manually.
+     */
+    private void playClickSound(){
+        AudioManager audioManager =(AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        if (audioManager != null) {
+            // Click only sounds if user has touch sounds enabled.
+            audioManager.playSoundEffect(SoundEffectConstants.CLICK);
+        }
+    }
+
     /** Alert user that the folder limit has been reached. */
     private void reachedNestedLimit(){
         Toast.makeText(getBaseContext(),
@@ -419,9 +1448,80 @@ public class MainActivity extends AppCompatActivity {
                 Toast.LENGTH_SHORT).show();
     }
 
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        if(fileFolderGrid ==null && canvasView ==null){
+            // The grid was never laid out, so pass on whatever we were given.
+            return retainedState;
+        }
+
+        RetainedState state = new RetainedState();
+        state.rootFolder =rootFolder;
+        state.currentFolder =currentFolder;
+        state.metadataIndex =metadataIndex;
+        state.fileOperations =fileOperations;
+        state.directoryCache =directoryCache;
+        state.listingTask =listingTask;
+        state.sortOrder =sortOrder;
+        if(canvasView !=null){
+            state.entries =canvasView.getEntries();
+            state.firstVisibleCell =canvasView.getFirstVisibleCell();
+            return state;
+        }
+        state.entries =fileFolderGrid.getEntries();
+        if(fileFolderGrid instanceof VirtualFileFolderGrid){
+            state.firstVisibleCell =
+                    ((VirtualFileFolderGrid) fileFolderGrid).getFirstVisibleCell();
+        }
+        return state;
+    }
+
+    @Override
+    protected void onStop() {
+        if(metadataIndex !=null){
+            // The app may be killed once it's out of sight, so write the index without waiting.
+            metadataIndex.flush();
+        }
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        cancelSpringLoad();
+        prefetchExecutor.shutdownNow();
+        // Callbacks wait for the next activity, or are dropped below if there won't be one.
+        fileOperations.detach();
+        if(isFinishing()){
+            // Otherwise the operations and listings carry on for the next configuration.
+            // The cache and index are let go once the operations using them have finished.
+            fileOperations.shutdown(release(directoryCache, metadataIndex));
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Forget the listings and write the index, once nothing is using them.
+     * Static, so the file operations left running don't hold on to the activity.
+     */
+    private static Runnable release(final DirectoryCache directoryCache,
+                                    final MetadataIndex metadataIndex){
+        return new Runnable() {
+            @Override
+            public void run() {
+                directoryCache.clear();
+                if(metadataIndex !=null){
+                    // Whatever has changed is written now, rather than after a delay.
+                    metadataIndex.flush();
+                }
+            }
+        };
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
+        // The sort order may have been carried over from a previous configuration.
+        menu.findItem(R.id.menu_item_sort_by).setTitle(sortTitle(nextSortOrder(sortOrder)));
         return true;
     }
 
@@ -430,28 +1530,23 @@ public class MainActivity extends AppCompatActivity {
         int id = item.getItemId();
 
         if (id == R.id.menu_item_sort_by) {
-            switch(sortOrder){
-                // Toggle the sort order.
-                case NAME:
-                    item.setTitle(R.string.action_sort_by_name);
-                    sortOrder = SortOrder.MODIFIED;
-                    break;
-                case MODIFIED:
-                    item.setTitle(R.string.action_sort_by_modified);
-                    sortOrder = SortOrder.NAME;
-                    break;
-            }
-            // Update grid with the new sort order.
+            // Step to the next sort order, and title the item with the one after it.
+            sortOrder = nextSortOrder(sortOrder);
+            item.setTitle(sortTitle(nextSortOrder(sortOrder)));
+            // Update grid with the new sort order, without reading the files again.
+            sortCurrentFolder();
+            return true;
+        } else if(id ==R.id.menu_item_delete_selected){
+            // Delete the files of every selected FileFolderButton and update once.
+            for(View view : new ArrayList<>(selection.getViews())){
+                FileFolderButton fileFolderButton =fileFolderGrid.findById(view.getId());
+                deleteFile(fileFolderButton.getFile(), fileFolderButton);
+            }
             updateCurrentFolder(currentFolder);
             return true;
         } else if(id ==R.id.menu_item_delete_all_reset){
             // User wants to delete all files and reset to the initial state.
-            deleteFilesFolders(rootFolder.listFiles());
-            nextFolderNum = 1;
-            nextFileNum = 1;
-            createFolder(rootFolder);
-            createFile(rootFolder);
-            updateCurrentFolder(rootFolder);
+            resetRootFolder();
         } else if(id ==R.id.menu_item_exit){
             finish();
         }
@@ -459,6 +1554,34 @@ public class MainActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    /** The sort order which follows another in the menu. */
+    private static SortOrder nextSortOrder(SortOrder order){
+        switch(order){
+            case MODIFIED:
+                return SortOrder.NAME;
+            case NAME:
+                return SortOrder.SIZE;
+            case SIZE:
+                return SortOrder.TYPE;
+            default:
+                return SortOrder.MODIFIED;
+        }
+    }
+
+    /** Title of the menu item which sorts in an order. */
+    private static int sortTitle(SortOrder order){
+        switch(order){
+            case NAME:
+                return R.string.action_sort_by_name;
+            case SIZE:
+                return R.string.action_sort_by_size;
+            case TYPE:
+                return R.string.action_sort_by_type;
+            default:
+                return R.string.action_sort_by_modified;
+        }
+    }
+
     @Override
     public void onBackPressed() {
         if(currentFolder.getPath().equals(rootFolder.getPath())){
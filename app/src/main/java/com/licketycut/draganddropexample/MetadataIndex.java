@@ -0,0 +1,523 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An index of the tree of files under the root folder, kept in one file beside it.
+ *
+ * The index holds the name, parent, modified time and size of every file and folder,
+ * the number of files in each folder, and the next numbers to name new files and folders by,
+ * so starting up only reads the small header of the index rather than walking the tree.
+ * The rest of the index is read when it's first needed. Changes are gathered for a moment and
+ * then written together to a new file which replaces the old one, so the index is never left
+ * half written. A change lost to the app being killed before it's written is found again,
+ * since a folder is checked against the disk whenever it's listed, and put right if it differs.
+ * The numbers are raised past any file or folder found that way, so a number is never given
+ * out twice, even if the numbers taken before the app was killed weren't written.
+ * Safe to use from any thread.
+ */
+final class MetadataIndex {
+
+    private static final String TAG ="MetadataIndex";
+
+    // New files and folders are named by these followed by their number.
+    static final String FILE_PREFIX ="File\n";
+    static final String FOLDER_PREFIX ="Folder\n";
+
+    private static final int MAGIC =0x44444958;
+    private static final int VERSION =1;
+    // Magic, version, next folder and file numbers and number of nodes.
+    private static final int HEADER_SIZE =5 * 4;
+
+    private static final byte FLAG_FOLDER =1;
+
+    // Milliseconds changes are gathered before the index is written.
+    private static final long COMMIT_DELAY =1000;
+    // Milliseconds the thread writing the index is kept once it has nothing to write.
+    private static final long COMMITTER_KEEP_ALIVE =10000;
+
+    /** A file or folder of the tree. */
+    private static final class Node {
+        private String name;
+        private Node parent;
+        private final boolean folder;
+        private long modified;
+        private long size;
+        // Files of a folder by name, null for a file.
+        private final HashMap<String, Node> children;
+
+        private Node(String name, boolean folder){
+            this.name =name;
+            this.folder =folder;
+            children =folder ? new HashMap<String, Node>() : null;
+        }
+
+        private int getChildCount(){
+            return children ==null ? 0 : children.size();
+        }
+    }
+
+    private final File indexFile;
+    private final File rootFolder;
+
+    // The numbers have a lock of their own, so taking one never waits on the tree.
+    private final Object counters = new Object();
+    private int nextFolderNum =1;
+    private int nextFileNum =1;
+
+    // Index as it was read at startup, until its nodes are read.
+    private ByteBuffer mapped =null;
+    private int nodeCount =0;
+    private Node root =null;
+
+    // Writes the index once changes have been gathered, on a thread of its own
+    // which is let go while there's nothing to write. The pending write has its own lock,
+    // so asking for it never waits on the tree or on a write.
+    private final ScheduledThreadPoolExecutor committer = new ScheduledThreadPoolExecutor(1);
+    private final Object commitLock = new Object();
+    private ScheduledFuture<?> pendingCommit =null;
+    private final Runnable commitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (commitLock){
+                pendingCommit =null;
+            }
+            commit();
+        }
+    };
+
+    private MetadataIndex(File indexFile, File rootFolder){
+        this.indexFile =indexFile;
+        this.rootFolder =rootFolder;
+        committer.setKeepAliveTime(COMMITTER_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+        committer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Open the index of a tree, reading just its header.
+     * If there is no index yet, or it can't be read, the tree is walked once to make one.
+     * Either may read the disk, so call it from a background thread.
+     * @param indexFile     File holding the index, outside the tree.
+     * @param rootFolder    Root folder of the tree.
+     * @return              The index.
+     */
+    static MetadataIndex open(File indexFile, File rootFolder){
+        MetadataIndex index = new MetadataIndex(indexFile, rootFolder);
+        if(!rootFolder.exists()){
+            // Nothing has been made yet, whatever an old index says.
+            index.root = new Node("", true);
+            index.changed();
+        } else if(!index.readHeader()){
+            index.rebuild();
+        }
+        return index;
+    }
+
+    /** Map the index and read its header, leaving the nodes to be read when needed. */
+    private boolean readHeader(){
+        if(!indexFile.isFile() || indexFile.length() <HEADER_SIZE){
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")){
+            // The mapping outlives the file being closed.
+            ByteBuffer buffer =file.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if(buffer.getInt() !=MAGIC || buffer.getInt() !=VERSION){
+                return false;
+            }
+            synchronized (counters){
+                nextFolderNum =buffer.getInt();
+                nextFileNum =buffer.getInt();
+            }
+            nodeCount =buffer.getInt();
+            mapped =buffer;
+            return true;
+        } catch (IOException e){
+            Log.w(TAG, "Could not read index : "+e.getMessage());
+            return false;
+        }
+    }
+
+    /** Read the nodes of the index, if they haven't been, or walk the tree if they can't be. */
+    private void load(){
+        if(root !=null){
+            return;
+        }
+        try {
+            ArrayList<Node> nodes = new ArrayList<>(nodeCount);
+            for(int index =0; index <nodeCount; index++){
+                int parent =mapped.getInt();
+                byte flags =mapped.get();
+                long modified =mapped.getLong();
+                long size =mapped.getLong();
+                // The child count is for readers of the file, the nodes count their children.
+                mapped.getInt();
+                byte[] name = new byte[mapped.getShort() & 0xffff];
+                mapped.get(name);
+
+                Node node = new Node(new String(name, StandardCharsets.UTF_8),
+                        (flags & FLAG_FOLDER) !=0);
+                node.modified =modified;
+                node.size =size;
+                if(parent >=0){
+                    // Parents are written before their children.
+                    if(parent >=nodes.size() || !nodes.get(parent).folder){
+                        throw new IOException("Node "+index+" has no parent folder");
+                    }
+                    node.parent =nodes.get(parent);
+                    node.parent.children.put(node.name, node);
+                }
+                nodes.add(node);
+            }
+            root =nodes.isEmpty() ? new Node("", true) : nodes.get(0);
+        } catch (BufferUnderflowException | IOException e){
+            Log.w(TAG, "Index is corrupt, reading the tree again.");
+            rebuild();
+        }
+        mapped =null;
+    }
+
+    /*
+     * Numbers are taken to name new files and folders by, and saved with the next change.
+     * Taking them never waits on the tree, so they may be taken on the main thread.
+     */
+
+    /** Take the next number to name a new folder by. */
+    int takeFolderNum(){
+        synchronized (counters){
+            return nextFolderNum++;
+        }
+    }
+
+    /**
+     * Take numbers to name new files by.
+     * @param count Numbers to take.
+     * @return      The first of them, the rest follow it.
+     */
+    int takeFileNums(int count){
+        synchronized (counters){
+            int first =nextFileNum;
+            nextFileNum +=count;
+            return first;
+        }
+    }
+
+    /** Number new files and folders from one again, past any which are found to be left. */
+    void resetCounters(){
+        synchronized (counters){
+            nextFolderNum =1;
+            nextFileNum =1;
+        }
+    }
+
+    /** A file or folder has been found on disk, so never give out its number again. */
+    private void foundNumber(Node node){
+        String prefix =node.folder ? FOLDER_PREFIX : FILE_PREFIX;
+        if(!node.name.startsWith(prefix)){
+            return;
+        }
+        int number;
+        try {
+            number =Integer.parseInt(node.name.substring(prefix.length()));
+        } catch (NumberFormatException e){
+            // Named by the user, so it can't clash with a number.
+            return;
+        }
+        synchronized (counters){
+            if(node.folder){
+                nextFolderNum =Math.max(nextFolderNum, number + 1);
+            } else{
+                nextFileNum =Math.max(nextFileNum, number + 1);
+            }
+        }
+    }
+
+    /** A file or an empty folder has been created. */
+    synchronized void added(File file){
+        addedAll(Collections.singletonList(file));
+    }
+
+    /** Files or empty folders have been created, which are saved as one change. */
+    synchronized void addedAll(List<File> files){
+        load();
+        for(File file : files){
+            Node parent =find(file.getParentFile());
+            if(parent !=null){
+                Node node =read(file);
+                node.parent =parent;
+                parent.children.put(node.name, node);
+                parent.modified =file.getParentFile().lastModified();
+            }
+        }
+        changed();
+    }
+
+    /** A file or folder has been moved, along with everything in it. */
+    synchronized void moved(File from, File to){
+        movedAll(Collections.singletonList(from), Collections.singletonList(to));
+    }
+
+    /**
+     * Files or folders have been moved, along with everything in them,
+     * which are saved as one change.
+     * @param from  Where each file was.
+     * @param to    Where each file is now, in the same order.
+     */
+    synchronized void movedAll(List<File> from, List<File> to){
+        load();
+        for(int index =0; index <from.size(); index++){
+            Node node =detach(from.get(index));
+            Node parent =find(to.get(index).getParentFile());
+            if(node !=null && parent !=null){
+                node.name =to.get(index).getName();
+                node.parent =parent;
+                parent.children.put(node.name, node);
+                parent.modified =to.get(index).getParentFile().lastModified();
+            }
+        }
+        changed();
+    }
+
+    /** A file or folder has been deleted, along with everything in it. */
+    synchronized void removed(File file){
+        load();
+        detach(file);
+        changed();
+    }
+
+    /**
+     * Check a folder against its listing, putting the index right if it differs.
+     * Only the folder's modified time is read unless it has changed.
+     * @param folder    A folder which has just been listed.
+     * @param fileList  Its files.
+     */
+    synchronized void verify(File folder, File[] fileList){
+        load();
+        Node node =find(folder);
+        if(node ==null || !node.folder){
+            return;
+        }
+        long modified =folder.lastModified();
+        if(modified ==node.modified && node.children.size() ==fileList.length){
+            return;
+        }
+
+        // Read the files again, keeping what is known of folders which haven't gone.
+        HashSet<String> names = new HashSet<>(fileList.length * 2);
+        for(File file : fileList){
+            names.add(file.getName());
+            Node child =node.children.get(file.getName());
+            Node fresh =read(file);
+            foundNumber(fresh);
+            if(child ==null || child.folder !=fresh.folder){
+                fresh.parent =node;
+                node.children.put(fresh.name, fresh);
+            } else{
+                child.modified =fresh.modified;
+                child.size =fresh.size;
+            }
+        }
+        node.children.keySet().retainAll(names);
+        node.modified =modified;
+        changed();
+    }
+
+    /**
+     * Walk the tree to index it again. New files and folders are numbered after those found,
+     * unless they're already numbered higher.
+     */
+    synchronized void rebuild(){
+        root =read(rootFolder);
+        root.name ="";
+        walk(rootFolder, root);
+        mapped =null;
+        changed();
+    }
+
+    private void walk(File folder, Node node){
+        File[] fileList =folder.listFiles();
+        if(fileList ==null){
+            return;
+        }
+        for(File file : fileList){
+            Node child =read(file);
+            foundNumber(child);
+            child.parent =node;
+            node.children.put(child.name, child);
+            if(child.folder){
+                walk(file, child);
+            }
+        }
+    }
+
+    /** Node of a file on disk, without any children. */
+    private static Node read(File file){
+        Node node = new Node(file.getName(), file.isDirectory());
+        node.modified =file.lastModified();
+        node.size =node.folder ? 0 : file.length();
+        return node;
+    }
+
+    /** Node of a file, or null if it isn't in the index. */
+    private Node find(File file){
+        if(file ==null){
+            return null;
+        }
+        if(file.equals(rootFolder)){
+            return root;
+        }
+        Node parent =find(file.getParentFile());
+        return parent ==null || !parent.folder ? null : parent.children.get(file.getName());
+    }
+
+    /** Take the node of a file out of the tree, returning it or null if it wasn't there. */
+    private Node detach(File file){
+        Node node =find(file);
+        if(node ==null || node ==root){
+            return null;
+        }
+        node.parent.children.remove(node.name);
+        node.parent.modified =file.getParentFile().lastModified();
+        return node;
+    }
+
+    /** The index has changed, so write it once any changes following closely have been made. */
+    private void changed(){
+        synchronized (commitLock){
+            if(pendingCommit ==null){
+                pendingCommit =
+                        committer.schedule(commitRunnable, COMMIT_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Write any changes now rather than after the delay, such as when the app is left.
+     * The write is made on the index's own thread, so this never waits for it.
+     */
+    void flush(){
+        synchronized (commitLock){
+            if(pendingCommit !=null && pendingCommit.cancel(false)){
+                pendingCommit =committer.submit(commitRunnable);
+            }
+        }
+    }
+
+    /**
+     * Write the whole index to a new file and swap it for the old one. Only the copy of the index
+     * is made with the tree locked, it is written and synced without.
+     * Called on the index's own thread, so one write finishes before the next starts.
+     */
+    private void commit(){
+        byte[] snapshot;
+        synchronized (this){
+            snapshot =snapshot();
+        }
+        if(snapshot ==null){
+            return;
+        }
+
+        File dir =indexFile.getParentFile();
+        File temp =null;
+        try {
+            temp =File.createTempFile(indexFile.getName(), ".tmp", dir);
+            try (FileOutputStream fileStream = new FileOutputStream(temp)){
+                fileStream.write(snapshot);
+                // On disk before it replaces the old index.
+                fileStream.getFD().sync();
+            }
+            if(!temp.renameTo(indexFile)){
+                throw new IOException("Could not replace "+indexFile.getPath());
+            }
+        } catch (IOException e){
+            Log.w(TAG, "Could not write index : "+e.getMessage());
+            if(temp !=null && !temp.delete()){
+                Log.w(TAG, "Could not delete : "+temp.getPath());
+            }
+        }
+    }
+
+    /** The whole index as it would be written, or null if it can't be. */
+    private byte[] snapshot(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            write(out);
+            out.flush();
+        } catch (IOException e){
+            Log.w(TAG, "Could not copy index : "+e.getMessage());
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        // Number the nodes breadth first, so every parent is written before its children.
+        ArrayList<Node> nodes = new ArrayList<>();
+        HashMap<Node, Integer> numbers = new HashMap<>();
+        nodes.add(root);
+        numbers.put(root, 0);
+        for(int index =0; index <nodes.size(); index++){
+            Node node =nodes.get(index);
+            if(node.folder){
+                for(Node child : node.children.values()){
+                    numbers.put(child, nodes.size());
+                    nodes.add(child);
+                }
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        synchronized (counters){
+            out.writeInt(nextFolderNum);
+            out.writeInt(nextFileNum);
+        }
+        out.writeInt(nodes.size());
+        for(Node node : nodes){
+            out.writeInt(node ==root ? -1 : numbers.get(node.parent));
+            out.writeByte(node.folder ? FLAG_FOLDER : 0);
+            out.writeLong(node.modified);
+            out.writeLong(node.size);
+            out.writeInt(node.getChildCount());
+            byte[] name =node.name.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(name.length);
+            out.write(name);
+        }
+    }
+}
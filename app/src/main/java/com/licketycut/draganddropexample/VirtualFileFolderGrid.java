@@ -0,0 +1,411 @@
+/*
+ * Copyright 2019 Adam Claflin [adam.r.claflin@gmail.com].
+ *
+ * Licensed under the Attribution-NonCommercial 4.0 International (CC BY-NC 4.0);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.licketycut.draganddropexample;
+
+import android.content.Context;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.View;
+
+import com.licketycut.draganddropexample.DragAndDrop.DragAndDropSelection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * {@link FileFolderGrid} for folders of any size, which scrolls vertically
+ * and only creates {@link FileFolderButton}s for the cells in view.
+ *
+ * Every file of the folder has a cell, numbered row * columns + column in listing order.
+ * As the grid scrolls, buttons of cells leaving the view are detached from the layout
+ * and kept in a pool, then bound to the files of cells coming into view.
+ * Buttons being touched or selected are never recycled, so a drag or selection survives scrolling.
+ */
+class VirtualFileFolderGrid extends FileFolderGrid {
+
+    // Rows bound above and below those in view, so a slow scroll doesn't bind every frame.
+    private static final int OVERSCAN_ROWS =1;
+
+    private final Context context;
+    private final View.OnTouchListener touchListener;
+    private final DragAndDropSelection selection;
+
+    private final int rowPitch;
+
+    // Every file of the folder in listing order, one per cell.
+    private ArrayList<FileEntry> entries = new ArrayList<>();
+
+    // Bound buttons keyed by cell, and their cells keyed by view:id.
+    private final SparseArray<FileFolderButton> buttonsByCell = new SparseArray<>();
+    private final SparseArray<FileFolderButton> boundButtonsById = new SparseArray<>();
+    private final SparseIntArray boundCellsById = new SparseIntArray();
+
+    // Detached buttons waiting to be bound to the next cells to come into view.
+    private final ArrayList<FileFolderButton> recyclePool = new ArrayList<>();
+    private final ArrayList<FileFolderButton> shifted = new ArrayList<>();
+
+    // Rows in view, including overscan, which may reach past the last file.
+    private int scrollY;
+    private int firstVisibleRow =0, lastVisibleRow =-1;
+    private int contentHeight =-1;
+
+    /**
+     * Create a new virtual grid to suit the current configuration.
+     * @param context       Context.
+     * @param viewport      Scrolling view which shows part of the layout.
+     * @param layout        Layout into which to create the buttons.
+     * @param cellSizeDp    Cell size represented in dp
+     * @param marginDp      Margin size represented in dp.
+     * @param touchListener Touch listener of every button.
+     * @param selection     Selection of buttons, which are kept while out of view, may be null.
+     */
+    VirtualFileFolderGrid(Context context, View viewport, FileFolderLayout layout,
+                          int cellSizeDp, int marginDp, View.OnTouchListener touchListener,
+                          DragAndDropSelection selection){
+        // A virtual grid holds as many files as the folder does.
+        super(context, viewport, layout, cellSizeDp, marginDp, Integer.MAX_VALUE);
+
+        this.context =context;
+        this.touchListener =touchListener;
+        this.selection =selection;
+
+        rowPitch =heightPixels/rows;
+
+        updateContentHeight();
+        setScrollY(viewport.getScrollY());
+    }
+
+    /** The viewport has scrolled, so bind the rows coming into view and recycle the rest. */
+    void setScrollY(int scrollY){
+        this.scrollY =scrollY;
+        firstVisibleRow =Math.max(0, (scrollY - halfMargin) / rowPitch - OVERSCAN_ROWS);
+        lastVisibleRow =(scrollY + heightPixels - halfMargin) / rowPitch + OVERSCAN_ROWS;
+
+        // Rebinding changes the labels of several buttons, which only need one layout pass.
+        layout.beginBatch();
+
+        // Recycle the buttons of cells which have left the view, from the back
+        // so removing them doesn't disturb the indices still to visit.
+        for(int index =buttonsByCell.size() -1; index >=0; index--){
+            int row =buttonsByCell.keyAt(index) / columns;
+            if(row <firstVisibleRow || row >lastVisibleRow){
+                FileFolderButton fileFolderButton =buttonsByCell.valueAt(index);
+                if(!isPinned(fileFolderButton)){
+                    recycle(fileFolderButton);
+                }
+            }
+        }
+
+        // Bind the cells in view which don't have a button yet.
+        int lastCell =Math.min(entries.size(), (lastVisibleRow +1) * columns);
+        for(int cell =firstVisibleRow * columns; cell <lastCell; cell++){
+            if(buttonsByCell.get(cell) ==null){
+                bind(cell);
+            }
+        }
+        layout.endBatch();
+    }
+
+    /** Add files to the next cells, binding those in view with one layout pass. */
+    void addEntries(List<FileEntry> newEntries){
+        int first =entries.size();
+        entries.addAll(newEntries);
+        updateContentHeight();
+
+        layout.beginBatch();
+        int last =Math.min(entries.size(), (lastVisibleRow +1) * columns);
+        for(int cell =Math.max(first, firstVisibleRow * columns); cell <last; cell++){
+            bind(cell);
+        }
+        layout.endBatch();
+    }
+
+    /**
+     * Adopt the files of a grid from a previous configuration, binding only the cells in view.
+     * @param entries   Files in listing order, which become the model of this grid.
+     */
+    void setEntries(ArrayList<FileEntry> entries){
+        for(int index =buttonsByCell.size() -1; index >=0; index--){
+            recycle(buttonsByCell.valueAt(index));
+        }
+        this.entries =entries;
+        updateContentHeight();
+        setScrollY(scrollY);
+    }
+
+    /** The files of the grid in listing order, the model itself rather than a copy. */
+    @Override
+    ArrayList<FileEntry> getEntries(){
+        return entries;
+    }
+
+    /** First cell of the top row in view. */
+    int getFirstVisibleCell(){
+        return Math.max(0, (scrollY - halfMargin) / rowPitch) * columns;
+    }
+
+    /** Scroll which brings the row of a cell to the top of the view. */
+    int getScrollYOfCell(int cell){
+        return cellY(cell / columns) - halfMargin;
+    }
+
+    /** Adopt a button which has already been created, pooling it if its cell is out of view. */
+    @Override
+    void setNextOpenButton(FileFolderButton fileFolderButton){
+        entries.add(new FileEntry(fileFolderButton.getFile(), fileFolderButton.isFolder()));
+        updateContentHeight();
+
+        int cell =entries.size() -1;
+        if(isVisible(cell)){
+            put(cell, fileFolderButton);
+            place(fileFolderButton, cell);
+        } else{
+            layout.removeCell(fileFolderButton);
+            recyclePool.add(fileFolderButton);
+        }
+    }
+
+    /**
+     * Remove the file of a button from the grid and move the files after it back a cell.
+     * The button is forgotten rather than recycled, the caller removes it from the view.
+     */
+    @Override
+    void removeButton(FileFolderButton fileFolderButton){
+        int id =fileFolderButton.getId();
+        int cell =boundCellsById.get(id, -1);
+        if(cell <0 || boundButtonsById.get(id) !=fileFolderButton){
+            return;
+        }
+        entries.remove(cell);
+        forget(cell, fileFolderButton);
+
+        // Buttons are in cell order, so take those after the removed cell from the back.
+        shifted.clear();
+        for(int index =buttonsByCell.size() -1; index >=0 && buttonsByCell.keyAt(index) >cell;
+            index--){
+            shifted.add(buttonsByCell.valueAt(index));
+            buttonsByCell.removeAt(index);
+        }
+        for(int index =shifted.size() -1; index >=0; index--){
+            FileFolderButton button =shifted.get(index);
+            int newCell =boundCellsById.get(button.getId()) -1;
+            put(newCell, button);
+            if(!button.isPressed()){
+                // Move it back a cell.
+                moveButton(button, newCell, false);
+            }
+        }
+        shifted.clear();
+
+        updateContentHeight();
+        // Fill the cell left empty at the end of the view.
+        setScrollY(scrollY);
+    }
+
+    /**
+     * Update the grid to a new sorted listing of the same folder. Bound buttons of files which
+     * are still listed keep their file and move to its new cell if it's in view, or are recycled,
+     * and the cells in view of new files are bound from the pool.
+     * @param listing   Sorted listing of the folder.
+     * @param animate   Animate buttons moving to their new cells in view?
+     * @param added     Left empty, the grid binds new files itself.
+     * @return          Buttons of removed files still being touched, which the caller removes.
+     */
+    @Override
+    ArrayList<FileFolderButton> submitListing(List<FileEntry> listing, boolean animate,
+                                              ArrayList<FileEntry> added){
+        // Only the cells in view are bound, so keying their buttons by file stays cheap
+        // however long the listing is.
+        HashMap<File, FileFolderButton> buttonsByFile = new HashMap<>();
+        for(int index =0; index <buttonsByCell.size(); index++){
+            FileFolderButton fileFolderButton =buttonsByCell.valueAt(index);
+            buttonsByFile.put(fileFolderButton.getFile(), fileFolderButton);
+        }
+        buttonsByCell.clear();
+        boundButtonsById.clear();
+        boundCellsById.clear();
+
+        // The listing already knows which files are folders, so it becomes the model as it is.
+        entries.clear();
+        entries.addAll(listing);
+        for(int cell =0; cell <listing.size(); cell++){
+            FileFolderButton fileFolderButton =buttonsByFile.isEmpty()
+                    ? null : buttonsByFile.remove(listing.get(cell).getFile());
+            if(fileFolderButton ==null){
+                continue;
+            }
+
+            boolean visible =isVisible(cell);
+            if(visible || isPinned(fileFolderButton)){
+                put(cell, fileFolderButton);
+                if(!fileFolderButton.isPressed()){
+                    moveButton(fileFolderButton, cell, animate && visible);
+                }
+            } else{
+                recycle(fileFolderButton);
+            }
+        }
+
+        // Whatever is left has been removed from the folder.
+        ArrayList<FileFolderButton> fileFolderButtonList = new ArrayList<>();
+        for(FileFolderButton fileFolderButton : buttonsByFile.values()){
+            if(fileFolderButton.isPressed()){
+                fileFolderButtonList.add(fileFolderButton);
+            } else{
+                recycle(fileFolderButton);
+            }
+        }
+
+        updateContentHeight();
+        // Bind the cells in view of new files.
+        setScrollY(scrollY);
+        return fileFolderButtonList;
+    }
+
+    @Override
+    FileFolderButton findById(int id){
+        return boundButtonsById.get(id);
+    }
+
+    @Override
+    int getRowCount(){
+        return (entries.size() + columns -1) / columns;
+    }
+
+    @Override
+    FileFolderButton getButton(int row, int column){
+        return buttonsByCell.get(row * columns + column);
+    }
+
+    @Override
+    int getOccupiedCount(){
+        return entries.size();
+    }
+
+    /**
+     * Recycle every button and forget every file.
+     * @return  Only the buttons still being touched, which the caller removes from the view.
+     */
+    @Override
+    ArrayList<FileFolderButton> removeFileFolderButtons(){
+        ArrayList<FileFolderButton> fileFolderButtonList = new ArrayList<>();
+        for(int index =buttonsByCell.size() -1; index >=0; index--){
+            FileFolderButton fileFolderButton =buttonsByCell.valueAt(index);
+            if(fileFolderButton.isPressed()){
+                // It's being dragged, so it can't be bound to another file yet.
+                forget(buttonsByCell.keyAt(index), fileFolderButton);
+                fileFolderButtonList.add(fileFolderButton);
+            } else{
+                recycle(fileFolderButton);
+            }
+        }
+        entries.clear();
+        updateContentHeight();
+        return fileFolderButtonList;
+    }
+
+    /** A virtual grid holds as many files as it's given. */
+    @Override
+    int getFreeCount(){
+        return Integer.MAX_VALUE;
+    }
+
+    /** A virtual grid is never full. */
+    @Override
+    boolean isFull(){
+        return false;
+    }
+
+    /** Bind the file of a cell to a pooled button, or a new one if the pool is empty. */
+    private void bind(int cell){
+        FileEntry entry =entries.get(cell);
+        FileFolderButton fileFolderButton;
+        int last =recyclePool.size() -1;
+        if(last >=0){
+            fileFolderButton =recyclePool.remove(last);
+            // Bind before attaching, so the drop targets see whether it's a folder.
+            fileFolderButton.bind(entry.getFile(), entry.isFolder());
+            layout.addCell(fileFolderButton);
+        } else{
+            fileFolderButton =
+                    new FileFolderButton(context, entry.getFile(), layout, entry.isFolder());
+            fileFolderButton.setOnTouchListener(touchListener);
+        }
+        put(cell, fileFolderButton);
+        place(fileFolderButton, cell);
+    }
+
+    /** Detach a button and keep it for another cell. */
+    private void recycle(FileFolderButton fileFolderButton){
+        int cell =boundCellsById.get(fileFolderButton.getId(), -1);
+        if(cell >=0){
+            forget(cell, fileFolderButton);
+        }
+        if(selection !=null){
+            selection.remove(fileFolderButton);
+        }
+
+        // Settle any hover highlight or move, so the button is bound at rest in its cell.
+        fileFolderButton.animate().cancel();
+        fileFolderButton.setScaleX(1.0f);
+        fileFolderButton.setScaleY(1.0f);
+        fileFolderButton.setTranslationX(0);
+        fileFolderButton.setTranslationY(0);
+
+        layout.removeCell(fileFolderButton);
+        recyclePool.add(fileFolderButton);
+    }
+
+    private void put(int cell, FileFolderButton fileFolderButton){
+        buttonsByCell.put(cell, fileFolderButton);
+        boundButtonsById.put(fileFolderButton.getId(), fileFolderButton);
+        boundCellsById.put(fileFolderButton.getId(), cell);
+    }
+
+    private void forget(int cell, FileFolderButton fileFolderButton){
+        buttonsByCell.remove(cell);
+        boundButtonsById.remove(fileFolderButton.getId());
+        boundCellsById.delete(fileFolderButton.getId());
+    }
+
+    /** Set the button to the place of its cell in the layout. */
+    private void place(FileFolderButton fileFolderButton, int cell){
+        layout.setCell(fileFolderButton, cell);
+    }
+
+    private boolean isVisible(int cell){
+        int row =cell / columns;
+        return row >=firstVisibleRow && row <=lastVisibleRow;
+    }
+
+    /** Buttons being touched or selected are kept while out of view. */
+    private boolean isPinned(FileFolderButton fileFolderButton){
+        return fileFolderButton.isPressed()
+                || (selection !=null && selection.contains(fileFolderButton));
+    }
+
+    /** Grow or shrink the layout to hold every row, so the viewport can scroll to it. */
+    private void updateContentHeight(){
+        int height =halfMargin * 2 + rowPitch * getRowCount();
+        if(height !=contentHeight){
+            contentHeight =height;
+            layout.setMinimumHeight(height);
+        }
+    }
+}